@@ -0,0 +1,522 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.artifact.resolver.ResolutionErrorHandler;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.repository.RepositorySystem;
+import org.apache.maven.shared.utils.Os;
+import org.apache.maven.shared.utils.StringUtils;
+import org.apache.maven.shared.utils.io.FileUtils;
+
+/**
+ * Common configuration and binary handling shared by the goals that run protolock.
+ */
+public abstract class AbstractProtolockMojo extends AbstractMojo {
+
+    /**
+     * The name of the file, kept in the plugin directory, that records which file each plugin artifact resolved to.
+     */
+    static final String PLUGIN_MANIFEST = "plugins.properties";
+
+    /**
+     * The name of the file, kept next to the protolock executable, that records the artifact go-offline installed it
+     * from and its checksum.
+     */
+    static final String PROTOLOCK_MANIFEST = "protolock.properties";
+
+    /**
+     * A list of protolock plugins. May be empty.
+     */
+    @Parameter(property = "plugins", required = false)
+    protected List<String> plugins;
+
+    /**
+     * A directory where native protolock plugins will be stored.
+     */
+    @Parameter(required = false, defaultValue = "${project.build.directory}/protolock-plugins")
+    protected File protolockPluginDirectory;
+
+    /**
+     * The protolock binary to use, as a Maven artifact in {@code groupId:artifactId:version[:type[:classifier]]}
+     * format. Defaults to the binary published with this plugin for the detected OS classifier.
+     */
+    @Parameter(property = "protolockArtifact", required = false)
+    protected String protolockArtifact;
+
+    @Parameter(defaultValue = "${plugin}", readonly = true)
+    protected PluginDescriptor pluginDescriptor;
+
+    @Parameter(required = true, readonly = true, property = "localRepository")
+    protected ArtifactRepository localRepository;
+
+    @Parameter(required = true, readonly = true, defaultValue = "${project.remoteArtifactRepositories}")
+    protected List<ArtifactRepository> remoteRepositories;
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    protected MavenProject project;
+
+    @Parameter(defaultValue = "${session}", readonly = true, required = true)
+    protected MavenSession session;
+
+    @Component
+    protected RepositorySystem repositorySystem;
+
+    @Component
+    protected ResolutionErrorHandler resolutionErrorHandler;
+
+    /**
+     * A protolock executable to run as it is, set when the check runs outside of Maven, where nothing is resolved.
+     */
+    Path protolockExecutable;
+
+    /**
+     * Determines the OS classifier detected by os-maven-plugin.
+     *
+     * @return the classifier.
+     */
+    protected String detectClassifier() throws MojoExecutionException {
+        final String classifier = project.getProperties().getProperty("os.detected.classifier");
+        if (classifier == null) {
+            getLog().error("Add os-maven-plugin to your POM. https://github.com/trustin/os-maven-plugin");
+            throw new MojoExecutionException("Unable to detect OS type.");
+        }
+
+        try {
+            protolockPluginDirectory = protolockPluginDirectory.getCanonicalFile();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Problem with plugin directory path", e);
+        }
+        return classifier;
+    }
+
+    /**
+     * Determines the extension of executables for an OS classifier.
+     *
+     * @param classifier the OS classifier.
+     * @return the extension, which is empty except on Windows.
+     */
+    protected static String executableExtension(String classifier) {
+        return classifier.startsWith("windows") ? ".exe" : "";
+    }
+
+    /**
+     * Installs the protolock executable for an OS classifier into the build directory, unless the same binary is
+     * already there. The executable is resolved as a classifier-specific Maven artifact, so only the binary for the
+     * current OS is ever downloaded. A binary found on the plugin's classpath is used instead when no artifact was
+     * configured. An executable left by an earlier build is always checked against its source, so that changing
+     * protolockArtifact or upgrading the plugin replaces it. An executable prefetched from the same artifact is only
+     * checked against the checksum recorded when it was prefetched, without resolving the artifact again.
+     *
+     * @param classifier the OS classifier.
+     * @param prefetch   whether the artifact is always resolved, and recorded for later checks.
+     * @return the protolock executable.
+     */
+    protected Path extractProtolock(String classifier, boolean prefetch) throws MojoExecutionException {
+        if (protolockExecutable != null) {
+            return protolockExecutable;
+        }
+        Path exeDirPath = Paths.get(project.getBuild().getDirectory(), "protolock-bin");
+        try {
+            Files.createDirectories(exeDirPath);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to create the protolock binary directory", e);
+        }
+
+        String exeExtension = executableExtension(classifier);
+        Path exePath = exeDirPath.resolve("protolock" + exeExtension);
+        try (CheckEvents.Phase phase = CheckEvents.extraction(project.getArtifactId(), classifier)) {
+            installProtolock(classifier, exePath, prefetch);
+        }
+        return exePath;
+    }
+
+    private void installProtolock(String classifier, Path exePath, boolean prefetch) throws MojoExecutionException {
+        String protolockResourcePath = classifier + "/protolock" + executableExtension(classifier);
+        if (protolockArtifact == null && getClass().getClassLoader().getResource(protolockResourcePath) != null) {
+            extractBundledProtolock(protolockResourcePath, exePath);
+            return;
+        }
+
+        String artifactSpec = protolockArtifact;
+        if (artifactSpec == null) {
+            if (pluginDescriptor == null) {
+                throw new MojoExecutionException(
+                    "OS not supported. Unable to find a protolock binary for the classifier " + classifier);
+            }
+            artifactSpec = pluginDescriptor.getGroupId() + ":" + pluginDescriptor.getArtifactId() + ":"
+                + pluginDescriptor.getVersion() + ":exe:" + classifier;
+        }
+        Path manifestFile = exePath.resolveSibling(PROTOLOCK_MANIFEST);
+        if (!prefetch && isPrefetched(manifestFile, artifactSpec, exePath)) {
+            getLog().debug("Using prefetched protolock binary " + artifactSpec);
+            return;
+        }
+        File sourceFile = resolveArtifactFile(createDependencyArtifact(artifactSpec));
+        installExecutable(sourceFile, exePath.toFile(), true);
+        if (prefetch) {
+            writeProtolockManifest(manifestFile, artifactSpec, exePath);
+        }
+    }
+
+    /**
+     * Tests whether the executable is the one go-offline installed from an artifact, and is unchanged since.
+     */
+    private boolean isPrefetched(Path manifestFile, String artifactSpec, Path exePath) throws MojoExecutionException {
+        if (!Files.exists(manifestFile) || !Files.exists(exePath)) {
+            return false;
+        }
+        Properties manifest = new Properties();
+        try (InputStream in = Files.newInputStream(manifestFile)) {
+            manifest.load(in);
+            if (!artifactSpec.equals(manifest.getProperty("artifact"))) {
+                return false;
+            }
+            if (!ResidentCache.sha256(exePath).equals(manifest.getProperty("sha256"))) {
+                getLog().warn("Resolving protolock again, the prefetched binary has a checksum mismatch: " + exePath);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read " + manifestFile, e);
+        }
+    }
+
+    private void writeProtolockManifest(Path manifestFile, String artifactSpec, Path exePath)
+        throws MojoExecutionException {
+        Properties manifest = new Properties();
+        try {
+            manifest.setProperty("artifact", artifactSpec);
+            manifest.setProperty("sha256", ResidentCache.sha256(exePath));
+            try (OutputStream out = Files.newOutputStream(manifestFile)) {
+                manifest.store(out, "Protolock binary resolved by go-offline");
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write " + manifestFile, e);
+        }
+    }
+
+    private void extractBundledProtolock(String protolockResourcePath, Path exePath) throws MojoExecutionException {
+        if (Files.exists(exePath) && !isStale(exePath, protolockResourcePath)) {
+            return;
+        }
+
+        try (InputStream in = getClass().getClassLoader().getResourceAsStream(protolockResourcePath)) {
+            Files.copy(in, exePath, StandardCopyOption.REPLACE_EXISTING);
+
+            PosixFileAttributeView attributes = Files.getFileAttributeView(exePath, PosixFileAttributeView.class);
+            if (attributes != null) {
+                attributes.setPermissions(PosixFilePermissions.fromString("rwxrwxr-x"));
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write the protolock binary", e);
+        }
+    }
+
+    private boolean isStale(Path exePath, String protolockResourcePath) throws MojoExecutionException {
+        try {
+            boolean stale = !ResidentCache.resourceSha256(getClass().getClassLoader(), protolockResourcePath)
+                .equals(ResidentCache.sha256(exePath));
+            if (stale) {
+                getLog().warn("Replacing protolock binary with a checksum mismatch: " + exePath);
+            }
+            return stale;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to verify the protolock binary", e);
+        }
+    }
+
+    /**
+     * Builds the PATH used to run protolock and its plugins.
+     *
+     * @return the PATH value.
+     */
+    protected String pluginSearchPath() {
+        String pathValue = System.getenv("PATH");
+        if (plugins != null && !plugins.isEmpty()) {
+            pathValue += File.pathSeparator + protolockPluginDirectory.getAbsolutePath();
+        }
+        return pathValue;
+    }
+
+    /**
+     * Locates the executable of each configured protolock plugin, resolving Maven artifacts into the plugin
+     * directory concurrently. Artifacts that were already resolved by the {@code go-offline} goal are not resolved
+     * again.
+     *
+     * @param pipeline     the pipeline artifacts are resolved on.
+     * @param pathValue    the PATH used to find plugins that are not Maven artifacts.
+     * @param exeExtension the extension of executables on this OS.
+     * @param verify       whether previously resolved plugin files should be checked against the resolved artifact.
+     * @return the plugin executables, in configuration order.
+     */
+    protected CompletableFuture<List<Path>> resolvePlugins(Pipeline pipeline, String pathValue, String exeExtension,
+                                                           boolean verify)
+        throws MojoExecutionException {
+        List<CompletableFuture<Path>> pluginExecutables = new ArrayList<>();
+        if (plugins == null) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+
+        Properties manifest = verify ? new Properties() : readPluginManifest();
+        for (String pluginSpec : plugins) {
+            if (pluginSpec.contains(":")) {
+                // A maven spec
+                String prefetched = manifest.getProperty(pluginSpec);
+                if (prefetched != null && new File(protolockPluginDirectory, prefetched).isFile()) {
+                    getLog().debug("Using prefetched protolock plugin " + pluginSpec);
+                    pluginExecutables.add(
+                        CompletableFuture.completedFuture(new File(protolockPluginDirectory, prefetched).toPath()));
+                    continue;
+                }
+                Artifact plugin = createDependencyArtifact(pluginSpec);
+                pluginExecutables.add(pipeline.submit(() -> {
+                    File pluginFile = resolveBinaryArtifact(plugin, verify);
+                    manifest.setProperty(pluginSpec, pluginFile.getName());
+                    return pluginFile.toPath();
+                }));
+            } else {
+                // Not a maven spec
+                pluginExecutables.add(
+                    CompletableFuture.completedFuture(findExecutable(pluginSpec, pathValue, exeExtension)));
+            }
+        }
+        return CompletableFuture.allOf(pluginExecutables.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            if (verify) {
+                try {
+                    writePluginManifest(manifest);
+                } catch (MojoExecutionException e) {
+                    throw new CompletionException(e);
+                }
+            }
+            List<Path> resolved = new ArrayList<>();
+            for (CompletableFuture<Path> pluginExecutable : pluginExecutables) {
+                resolved.add(pluginExecutable.join());
+            }
+            return resolved;
+        });
+    }
+
+    private Properties readPluginManifest() throws MojoExecutionException {
+        Properties manifest = new Properties();
+        Path manifestFile = protolockPluginDirectory.toPath().resolve(PLUGIN_MANIFEST);
+        if (Files.exists(manifestFile)) {
+            try (InputStream in = Files.newInputStream(manifestFile)) {
+                manifest.load(in);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to read " + manifestFile, e);
+            }
+        }
+        return manifest;
+    }
+
+    private void writePluginManifest(Properties manifest) throws MojoExecutionException {
+        Path manifestFile = protolockPluginDirectory.toPath().resolve(PLUGIN_MANIFEST);
+        try {
+            Files.createDirectories(manifestFile.getParent());
+            try (OutputStream out = Files.newOutputStream(manifestFile)) {
+                manifest.store(out, "Protolock plugins resolved by go-offline");
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write " + manifestFile, e);
+        }
+    }
+
+    /**
+     * Finds a protolock plugin executable that was specified by name rather than as a Maven artifact.
+     */
+    private Path findExecutable(String name, String pathValue, String exeExtension) throws MojoExecutionException {
+        for (String dir : StringUtils.split(pathValue, File.pathSeparator)) {
+            for (String candidate : new String[] {name, name + exeExtension}) {
+                Path executable = Paths.get(dir, candidate);
+                if (Files.isRegularFile(executable) && Files.isExecutable(executable)) {
+                    return executable;
+                }
+            }
+        }
+        throw new MojoExecutionException("Unable to find protolock plugin " + name + " on the PATH");
+    }
+
+    /**
+     * Creates a dependency artifact from a specification in
+     * {@code groupId:artifactId:version[:type[:classifier]]} format.
+     *
+     * @param artifactSpec artifact specification.
+     * @return artifact object instance.
+     */
+    protected Artifact createDependencyArtifact(final String artifactSpec) throws MojoExecutionException {
+        if (repositorySystem == null) {
+            throw new MojoExecutionException(
+                "Unable to resolve artifact " + artifactSpec + " outside of a Maven build");
+        }
+        final String[] parts = artifactSpec.split(":");
+        if (parts.length < 3 || parts.length > 5) {
+            throw new MojoExecutionException(
+                "Invalid artifact specification format"
+                    + ", expected: groupId:artifactId:version[:type[:classifier]]"
+                    + ", actual: " + artifactSpec);
+        }
+        final String type = parts.length >= 4 ? parts[3] : "exe";
+        final String classifier = parts.length == 5 ? parts[4] : null;
+
+        final String groupId = parts[0];
+        final String artifactId = parts[1];
+        final String version = parts[2];
+
+        Dependency dependency = new Dependency();
+        dependency.setGroupId(groupId);
+        dependency.setArtifactId(artifactId);
+        dependency.setVersion(version);
+        dependency.setType(type);
+        dependency.setClassifier(classifier);
+        dependency.setScope(Artifact.SCOPE_RUNTIME);
+
+        return repositorySystem.createDependencyArtifact(dependency);
+    }
+
+    /**
+     * Downloads a binary artifact and installs it in the protolock plugin directory.
+     *
+     * @param artifact the artifact to download.
+     * @param verify   whether a previously installed file should be checked against the resolved artifact.
+     * @return a handle to the downloaded file.
+     */
+    protected File resolveBinaryArtifact(final Artifact artifact, boolean verify) throws MojoExecutionException {
+        // Copy the file to the project build directory and make it executable
+        final File sourceFile = resolveArtifactFile(artifact);
+        final String sourceFileName = sourceFile.getName();
+        final String targetFileName;
+        if (Os.isFamily(Os.FAMILY_WINDOWS) && !sourceFileName.endsWith(".exe")) {
+            targetFileName = sourceFileName + ".exe";
+        } else {
+            targetFileName = sourceFileName;
+        }
+        final File targetFile = new File(protolockPluginDirectory, targetFileName);
+        installExecutable(sourceFile, targetFile, verify);
+        return targetFile;
+    }
+
+    /**
+     * Resolves an artifact through the local repository, downloading it if needed.
+     *
+     * @param artifact the artifact to resolve.
+     * @return the artifact's file in the local repository.
+     */
+    private File resolveArtifactFile(final Artifact artifact) throws MojoExecutionException {
+        final ArtifactResolutionResult result;
+        try (CheckEvents.Phase phase = CheckEvents.resolution(project.getArtifactId(), artifact.toString())) {
+            final ArtifactResolutionRequest request = new ArtifactResolutionRequest()
+                .setArtifact(project.getArtifact())
+                .setResolveRoot(false)
+                .setResolveTransitively(false)
+                .setArtifactDependencies(singleton(artifact))
+                .setManagedVersionMap(emptyMap())
+                .setLocalRepository(localRepository)
+                .setRemoteRepositories(remoteRepositories)
+                .setOffline(session.isOffline())
+                .setForceUpdate(session.getRequest().isUpdateSnapshots())
+                .setServers(session.getRequest().getServers())
+                .setMirrors(session.getRequest().getMirrors())
+                .setProxies(session.getRequest().getProxies());
+
+            result = repositorySystem.resolve(request);
+
+            resolutionErrorHandler.throwErrors(request, result);
+        } catch (final ArtifactResolutionException e) {
+            throw new MojoExecutionException("Unable to resolve artifact: " + e.getMessage(), e);
+        }
+
+        final Set<Artifact> artifacts = result.getArtifacts();
+
+        if (artifacts == null || artifacts.isEmpty()) {
+            throw new MojoExecutionException("Unable to resolve artifact");
+        }
+
+        final Artifact resolvedBinaryArtifact = artifacts.iterator().next();
+        if (getLog().isDebugEnabled()) {
+            getLog().debug("Resolved artifact: " + resolvedBinaryArtifact);
+        }
+        return resolvedBinaryArtifact.getFile();
+    }
+
+    /**
+     * Copies a resolved binary to its location in the build directory and makes it executable.
+     *
+     * @param sourceFile the resolved binary.
+     * @param targetFile the executable to create.
+     * @param verify     whether an existing executable should be checked against the resolved binary.
+     */
+    private void installExecutable(final File sourceFile, final File targetFile, boolean verify)
+        throws MojoExecutionException {
+        final File targetDir = targetFile.getParentFile();
+        if (targetFile.exists()) {
+            if (!verify || isSameFile(sourceFile, targetFile)) {
+                // The file must have already been copied in a prior plugin execution/invocation
+                getLog().debug("Executable file already exists: " + targetFile.getAbsolutePath());
+                return;
+            }
+            getLog().warn("Replacing executable with a checksum mismatch: " + targetFile.getAbsolutePath());
+        }
+        try {
+            FileUtils.forceMkdir(targetDir);
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Unable to create directory " + targetDir, e);
+        }
+        try {
+            FileUtils.copyFile(sourceFile, targetFile);
+        } catch (final IOException e) {
+            throw new MojoExecutionException("Unable to copy the file to " + targetDir, e);
+        }
+        if (!Os.isFamily(Os.FAMILY_WINDOWS)) {
+            targetFile.setExecutable(true);
+        }
+
+        if (getLog().isDebugEnabled()) {
+            getLog().debug("Executable file: " + targetFile.getAbsolutePath());
+        }
+    }
+
+    private static boolean isSameFile(File sourceFile, File targetFile) throws MojoExecutionException {
+        try {
+            return ResidentCache.sha256(sourceFile.toPath()).equals(ResidentCache.sha256(targetFile.toPath()));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to verify " + targetFile, e);
+        }
+    }
+}
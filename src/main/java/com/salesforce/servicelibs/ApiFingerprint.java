@@ -0,0 +1,126 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fingerprints the API of a proto file rather than its text. The file is reduced to its tokens, leaving out comments
+ * and whitespace, and the top-level declarations and the members of every message are sorted, so documentation fixes,
+ * reformatting and moving declarations around do not change the fingerprint. Other blocks, such as enums, keep their
+ * order, because the order of enum values can matter: the first value is the default.
+ */
+final class ApiFingerprint {
+
+    private final String source;
+    private int position;
+
+    private ApiFingerprint(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Fingerprints the content of a proto file.
+     *
+     * @param content the content of the file.
+     * @return the hex-encoded fingerprint.
+     */
+    static String of(byte[] content) {
+        return Checksums.sha256(canonicalize(new String(content, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Reduces proto source to a canonical form: one declaration per line, with the tokens of each declaration
+     * separated by single spaces, and the top-level declarations and the members of every message sorted.
+     *
+     * @param source the proto source.
+     * @return the canonical form.
+     */
+    static String canonicalize(String source) {
+        List<String> declarations = new ApiFingerprint(source).declarations();
+        Collections.sort(declarations);
+        return String.join("\n", declarations);
+    }
+
+    /**
+     * Reads declarations up to the end of the enclosing block, or of the file.
+     */
+    private List<String> declarations() {
+        List<String> declarations = new ArrayList<>();
+        StringBuilder declaration = new StringBuilder();
+        for (String token = nextToken(); token != null && !"}".equals(token); token = nextToken()) {
+            if (declaration.length() > 0) {
+                declaration.append(' ');
+            }
+            declaration.append(token);
+            if ("{".equals(token)) {
+                boolean message = declaration.toString().startsWith("message ");
+                List<String> body = declarations();
+                if (message) {
+                    Collections.sort(body);
+                }
+                declaration.append(' ').append(String.join(" ", body)).append(" }");
+            }
+            if (";".equals(token) || "{".equals(token)) {
+                // An empty statement has no meaning, and neither has a semicolon after a block
+                if (!";".equals(declaration.toString())) {
+                    declarations.add(declaration.toString());
+                }
+                declaration.setLength(0);
+            }
+        }
+        if (declaration.length() > 0) {
+            declarations.add(declaration.toString());
+        }
+        return declarations;
+    }
+
+    /**
+     * Reads the next token, skipping whitespace and comments.
+     *
+     * @return the token, or null at the end of the source.
+     */
+    private String nextToken() {
+        while (position < source.length()) {
+            char c = source.charAt(position);
+            if (Character.isWhitespace(c)) {
+                position++;
+            } else if (source.startsWith("//", position)) {
+                int end = source.indexOf('\n', position);
+                position = end < 0 ? source.length() : end + 1;
+            } else if (source.startsWith("/*", position)) {
+                int end = source.indexOf("*/", position + 2);
+                position = end < 0 ? source.length() : end + 2;
+            } else if (c == '"' || c == '\'') {
+                int start = position++;
+                while (position < source.length() && source.charAt(position) != c) {
+                    position += source.charAt(position) == '\\' ? 2 : 1;
+                }
+                position = Math.min(position + 1, source.length());
+                return source.substring(start, position);
+            } else if (isWordCharacter(c)) {
+                int start = position;
+                while (position < source.length() && isWordCharacter(source.charAt(position))) {
+                    position++;
+                }
+                return source.substring(start, position);
+            } else {
+                position++;
+                return String.valueOf(c);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+}
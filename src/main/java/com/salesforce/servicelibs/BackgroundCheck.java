@@ -0,0 +1,466 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.ExecutionListener;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * A backwards compatibility check running in the background while the rest of the module is built. Its log is
+ * recorded and replayed when the check is joined, so that it does not interleave with the output of other goals. It
+ * only commits to proto.lock once it is joined, so a build that fails to compile or test leaves the lock as it was.
+ *
+ * <p>A check that is never joined, because the build failed before reaching it, is cancelled when the Maven session
+ * ends, which matters under the Maven daemon where the JVM outlives the build, and otherwise when the JVM exits.</p>
+ */
+final class BackgroundCheck {
+
+    private static final String CONTEXT_KEY = BackgroundCheck.class.getName();
+    private static final Map<String, BackgroundCheck> RUNNING = new HashMap<>();
+    private static boolean shutdownHookAdded;
+
+    private final String key;
+    private final BackwardsCompatibilityCheckMojo check;
+    private final RecordedLog log;
+    private final FutureTask<Void> task;
+
+    private BackgroundCheck(String key, BackwardsCompatibilityCheckMojo check, RecordedLog log) {
+        this.key = key;
+        this.check = check;
+        this.log = log;
+        this.task = new FutureTask<>(() -> {
+            check.runCheck();
+            return null;
+        });
+    }
+
+    /**
+     * Starts a check in the background and keeps it in the context of the project, to be joined later.
+     *
+     * @param project the checked project.
+     * @param check   the configured check. Its log is replaced by one that is replayed when the check is joined.
+     */
+    static void start(MavenProject project, BackwardsCompatibilityCheckMojo check) {
+        String key = project.getBuild().getDirectory();
+        RecordedLog log = new RecordedLog(check.getLog().isDebugEnabled());
+        BackgroundCheck background = new BackgroundCheck(key, check, log);
+        BackgroundCheck stale;
+        synchronized (RUNNING) {
+            if (!shutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(
+                    new Thread(BackgroundCheck::cancelAll, "protolock-background-cancel"));
+                shutdownHookAdded = true;
+            }
+            stale = RUNNING.put(key, background);
+        }
+        if (stale != null) {
+            // Left over from an earlier build in the same JVM that never reached the join
+            stale.cancel();
+        }
+        check.setLog(log);
+        check.deferCommit();
+        project.setContextValue(CONTEXT_KEY, background);
+        if (check.session != null) {
+            SessionEndListener.install(check.session).add(background);
+        }
+
+        Thread thread = new Thread(background.task, "protolock-background-" + project.getArtifactId());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Takes the check started in the background for a project, if any.
+     *
+     * @param project the checked project.
+     * @return the check, or null if no check was started in the background.
+     */
+    static BackgroundCheck take(MavenProject project) {
+        Object background = project.getContextValue(CONTEXT_KEY);
+        if (background instanceof BackgroundCheck) {
+            project.setContextValue(CONTEXT_KEY, null);
+            return (BackgroundCheck) background;
+        }
+        return null;
+    }
+
+    /**
+     * Tests whether the check has the same lock directory and configuration as another one, so that its result can be
+     * reported for it.
+     *
+     * @param other the other check.
+     * @return true if the checks are the same.
+     * @throws MojoExecutionException if a lock directory can not be resolved.
+     */
+    boolean isSameCheck(BackwardsCompatibilityCheckMojo other) throws MojoExecutionException {
+        return check.checkKey().equals(other.checkKey());
+    }
+
+    /**
+     * Waits for the check to finish, replays its log, and reports its result.
+     *
+     * @param target the log to replay the check's log to.
+     * @throws MojoExecutionException if the check could not be run, was cancelled, or waiting was interrupted.
+     * @throws MojoFailureException   if the check failed.
+     */
+    void join(Log target) throws MojoExecutionException, MojoFailureException {
+        if (!task.isDone()) {
+            target.info("Waiting for the backwards compatibility check running in the background");
+        }
+        check.allowCommit();
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for the backwards compatibility check", e);
+        } catch (CancellationException e) {
+            throw new MojoExecutionException("The backwards compatibility check running in the background was "
+                + "cancelled", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MojoFailureException) {
+                throw (MojoFailureException) cause;
+            }
+            if (cause instanceof MojoExecutionException) {
+                throw (MojoExecutionException) cause;
+            }
+            throw new MojoExecutionException("An error occurred while running protolock", cause);
+        } finally {
+            log.replay(target);
+            synchronized (RUNNING) {
+                RUNNING.remove(key, this);
+            }
+        }
+    }
+
+    /**
+     * Stops the check, killing its processes.
+     */
+    void cancel() {
+        if (task.cancel(true)) {
+            check.cancel();
+        }
+        synchronized (RUNNING) {
+            RUNNING.remove(key, this);
+        }
+    }
+
+    private static void cancelAll() {
+        List<BackgroundCheck> running;
+        synchronized (RUNNING) {
+            running = new ArrayList<>(RUNNING.values());
+        }
+        for (BackgroundCheck background : running) {
+            background.cancel();
+        }
+    }
+
+    /**
+     * Cancels the checks started in a session that are still running when it ends, passing every event on to the
+     * listener it replaces. Maven reads the listener from the request for each event, so it takes effect at once.
+     */
+    private static final class SessionEndListener implements ExecutionListener {
+        private final ExecutionListener delegate;
+        private final List<BackgroundCheck> started = new ArrayList<>();
+
+        private SessionEndListener(ExecutionListener delegate) {
+            this.delegate = delegate;
+        }
+
+        static SessionEndListener install(MavenSession session) {
+            MavenExecutionRequest request = session.getRequest();
+            synchronized (request) {
+                ExecutionListener listener = request.getExecutionListener();
+                if (listener instanceof SessionEndListener) {
+                    return (SessionEndListener) listener;
+                }
+                SessionEndListener sessionEnd = new SessionEndListener(listener);
+                request.setExecutionListener(sessionEnd);
+                return sessionEnd;
+            }
+        }
+
+        synchronized void add(BackgroundCheck background) {
+            started.add(background);
+        }
+
+        @Override
+        public void sessionEnded(ExecutionEvent event) {
+            List<BackgroundCheck> running;
+            synchronized (this) {
+                running = new ArrayList<>(started);
+                started.clear();
+            }
+            for (BackgroundCheck background : running) {
+                background.cancel();
+            }
+            if (delegate != null) {
+                delegate.sessionEnded(event);
+            }
+        }
+
+        @Override
+        public void projectDiscoveryStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectDiscoveryStarted(event);
+            }
+        }
+
+        @Override
+        public void sessionStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.sessionStarted(event);
+            }
+        }
+
+        @Override
+        public void projectSkipped(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectSkipped(event);
+            }
+        }
+
+        @Override
+        public void projectStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectStarted(event);
+            }
+        }
+
+        @Override
+        public void projectSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectSucceeded(event);
+            }
+        }
+
+        @Override
+        public void projectFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectFailed(event);
+            }
+        }
+
+        @Override
+        public void mojoSkipped(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoSkipped(event);
+            }
+        }
+
+        @Override
+        public void mojoStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoStarted(event);
+            }
+        }
+
+        @Override
+        public void mojoSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoSucceeded(event);
+            }
+        }
+
+        @Override
+        public void mojoFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoFailed(event);
+            }
+        }
+
+        @Override
+        public void forkStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkStarted(event);
+            }
+        }
+
+        @Override
+        public void forkSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkSucceeded(event);
+            }
+        }
+
+        @Override
+        public void forkFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkFailed(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectStarted(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectSucceeded(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectFailed(event);
+            }
+        }
+    }
+
+    /**
+     * Records log messages to replay them later.
+     */
+    private static final class RecordedLog implements Log {
+        private final boolean debug;
+        private final List<Message> messages = new ArrayList<>();
+
+        RecordedLog(boolean debug) {
+            this.debug = debug;
+        }
+
+        private synchronized void add(char level, CharSequence content, Throwable error) {
+            messages.add(new Message(level, content, error));
+        }
+
+        synchronized void replay(Log target) {
+            for (Message message : messages) {
+                switch (message.level) {
+                    case 'D':
+                        target.debug(message.content, message.error);
+                        break;
+                    case 'W':
+                        target.warn(message.content, message.error);
+                        break;
+                    case 'E':
+                        target.error(message.content, message.error);
+                        break;
+                    default:
+                        target.info(message.content, message.error);
+                        break;
+                }
+            }
+            messages.clear();
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return debug;
+        }
+
+        @Override
+        public void debug(CharSequence content) {
+            debug(content, null);
+        }
+
+        @Override
+        public void debug(CharSequence content, Throwable error) {
+            if (debug) {
+                add('D', content, error);
+            }
+        }
+
+        @Override
+        public void debug(Throwable error) {
+            debug(null, error);
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return true;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+            info(content, null);
+        }
+
+        @Override
+        public void info(CharSequence content, Throwable error) {
+            add('I', content, error);
+        }
+
+        @Override
+        public void info(Throwable error) {
+            info(null, error);
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        @Override
+        public void warn(CharSequence content) {
+            warn(content, null);
+        }
+
+        @Override
+        public void warn(CharSequence content, Throwable error) {
+            add('W', content, error);
+        }
+
+        @Override
+        public void warn(Throwable error) {
+            warn(null, error);
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        @Override
+        public void error(CharSequence content) {
+            error(content, null);
+        }
+
+        @Override
+        public void error(CharSequence content, Throwable error) {
+            add('E', content, error);
+        }
+
+        @Override
+        public void error(Throwable error) {
+            error(null, error);
+        }
+    }
+
+    /**
+     * One recorded log message.
+     */
+    private static final class Message {
+        private final char level;
+        private final CharSequence content;
+        private final Throwable error;
+
+        Message(char level, CharSequence content, Throwable error) {
+            this.level = level;
+            this.content = content;
+            this.error = error;
+        }
+    }
+}
@@ -7,49 +7,59 @@
 
 package com.salesforce.servicelibs;
 
-import static java.util.Collections.emptyMap;
-import static java.util.Collections.singleton;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonMap;
 
+import com.salesforce.servicelibs.ProtoSourceScanner.ProtoSourceScan;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.attribute.PosixFileAttributeView;
-import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
-import org.apache.maven.artifact.Artifact;
-import org.apache.maven.artifact.repository.ArtifactRepository;
-import org.apache.maven.artifact.resolver.ArtifactResolutionException;
-import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
-import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
-import org.apache.maven.artifact.resolver.ResolutionErrorHandler;
-import org.apache.maven.execution.MavenSession;
-import org.apache.maven.model.Dependency;
-import org.apache.maven.plugin.AbstractMojo;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
-import org.apache.maven.project.MavenProject;
-import org.apache.maven.repository.RepositorySystem;
-import org.apache.maven.shared.utils.Os;
 import org.apache.maven.shared.utils.StringUtils;
 import org.apache.maven.shared.utils.io.FileUtils;
 
 @Mojo(name = "backwards-compatibility-check", defaultPhase = LifecyclePhase.VERIFY,
     requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
-public class BackwardsCompatibilityCheckMojo extends AbstractMojo {
+public class BackwardsCompatibilityCheckMojo extends AbstractProtolockMojo {
 
     public static final int RESULT_CODE_SUCCESS = 0;
+
+    static final String LOCK_FORMAT_PLAIN = "plain";
+    static final String LOCK_FORMAT_GZIP = "gzip";
+
+    private static final String LAST_PASSED_CHECK = "last-passed-check.properties";
+    private static final String PASSED_INPUTS = "inputs";
+    private static final String PASSED_FILE_PREFIX = "file.";
+
+    private static final Pattern IGNORE_OPTION = Pattern.compile("--ignore[= ](\\S+)");
+
     /**
      * The directory where .proto source files can be found.
      */
@@ -68,12 +78,6 @@ public class BackwardsCompatibilityCheckMojo extends AbstractMojo {
     @Parameter(property = "allowBreakingChanges", defaultValue = "false")
     private boolean allowBreakingChanges;
 
-    /**
-     * A list of protolock plugins. May be empty.
-     */
-    @Parameter(property = "plugins", required = false)
-    private List<String> plugins;
-
     /**
      * Additional options to pass to protolock, using command line format. See protolock documentation for details.
      */
@@ -81,139 +85,366 @@ public class BackwardsCompatibilityCheckMojo extends AbstractMojo {
     private String options;
 
     /**
-     * A directory where native protolock plugins will be stored.
+     * A directory where the results of protolock plugins are cached between builds.
      */
-    @Parameter(required = false, defaultValue = "${project.build.directory}/protolock-plugins")
-    private File protolockPluginDirectory;
+    @Parameter(required = false, defaultValue = "${project.build.directory}/protolock-cache")
+    private File cacheDirectory;
 
-    @Parameter(required = true, readonly = true, property = "localRepository")
-    protected ArtifactRepository localRepository;
+    /**
+     * Globs of proto files to check, relative to protoSourceRoot. All proto files are checked when empty.
+     */
+    @Parameter(required = false)
+    private List<String> includes;
 
-    @Parameter(required = true, readonly = true, defaultValue = "${project.remoteArtifactRepositories}")
-    protected List<ArtifactRepository> remoteRepositories;
+    /**
+     * Globs of proto files to leave out of the check, relative to protoSourceRoot. A glob ending in {@code /**}, such
+     * as {@code third_party/**}, skips the whole directory. Definitions of excluded files already in proto.lock are
+     * kept as they are, and new ones are not added.
+     */
+    @Parameter(required = false)
+    private List<String> excludes;
 
-    @Parameter(defaultValue = "${project}", readonly = true, required = true)
-    protected MavenProject project;
+    /**
+     * The number of lines of protolock output to log at the start and at the end of the check. Lines in between are
+     * replaced by a count of conflicts per file, and the full output is written to outputDirectory. All output is
+     * logged when 0.
+     */
+    @Parameter(property = "outputLimit", defaultValue = "0")
+    private int outputLimit;
 
-    @Parameter(defaultValue = "${session}", readonly = true, required = true)
-    protected MavenSession session;
+    /**
+     * The directory where the full protolock output is written when outputLimit is set.
+     */
+    @Parameter(required = false, defaultValue = "${project.build.directory}/protolock-output")
+    private File outputDirectory;
 
-    @Component
-    protected RepositorySystem repositorySystem;
+    /**
+     * The format proto.lock is stored in: {@code plain} for protolock's own format, or {@code gzip} for a compressed,
+     * key-sorted proto.lock.gz. A plain proto.lock is migrated to proto.lock.gz by the first successful gzip check.
+     */
+    @Parameter(property = "lockFormat", defaultValue = LOCK_FORMAT_PLAIN)
+    private String lockFormat;
 
-    @Component
-    protected ResolutionErrorHandler resolutionErrorHandler;
+    /**
+     * Fail the check as soon as protolock status reports breaking changes, without running protolock plugins or
+     * committing. protolock itself still analyzes every proto file before it reports, so only the plugins are saved.
+     * Has no effect when allowBreakingChanges is set.
+     */
+    @Parameter(property = "failFast", defaultValue = "false")
+    private boolean failFast;
 
     /**
-     * Execute the plugin.
-     *
-     * @throws MojoExecutionException thrown when execution of protolock fails.
-     * @throws MojoFailureException   thrown when compatibility check fails.
+     * The shard of the proto tree to check, from 0 to shardCount - 1.
      */
-    public void execute() throws MojoExecutionException, MojoFailureException {
-        final String classifier = project.getProperties().getProperty("os.detected.classifier");
-        if (classifier == null) {
-            getLog().error("Add os-maven-plugin to your POM. https://github.com/trustin/os-maven-plugin");
-            throw new MojoExecutionException("Unable to detect OS type.");
-        }
+    @Parameter(property = "shardIndex", defaultValue = "0")
+    private int shardIndex;
 
-        try {
-            protolockPluginDirectory = protolockPluginDirectory.getCanonicalFile();
-        } catch (IOException e) {
-            throw new MojoExecutionException("Problem with plugin directory path", e);
-        }
+    /**
+     * The number of shards the proto tree is split into, so that the check can be spread over several machines. Each
+     * shard checks its files against proto.lock and writes a report and a lock fragment to shardDirectory, which
+     * the merge-shards goal combines. proto.lock itself is only updated by merge-shards.
+     */
+    @Parameter(property = "shardCount", defaultValue = "1")
+    private int shardCount;
 
-        // Copy protolock executable locally if needed
-        Path exeDirPath = Paths.get(project.getBuild().getDirectory(), "protolock-bin");
-        try {
-            Files.createDirectories(exeDirPath);
-        } catch (IOException e) {
-            throw new MojoExecutionException("Unable to create the protolock binary directory", e);
-        }
+    /**
+     * The directory where shard reports and lock fragments are written.
+     */
+    @Parameter(required = false, defaultValue = "${project.build.directory}/protolock-shards")
+    private File shardDirectory;
 
-        String exeExtension = "";
-        if (classifier.startsWith("windows")) {
-            exeExtension = ".exe";
-        }
+    /**
+     * A git ref, such as {@code origin/main} or a merge-base commit, whose proto tree is checked against instead of
+     * the proto.lock in lockDir. The baseline lock is generated from the tree at that commit, read from the local
+     * repository, and cached by commit so that it is only generated once.
+     */
+    @Parameter(property = "baselineRef")
+    private String baselineRef;
 
-        Path exePath = exeDirPath.resolve("protolock" + exeExtension);
-        if (!Files.exists(exePath)) {
-            String protolockResourcePath = classifier + "/protolock" + exeExtension;
+    /**
+     * The directory where baseline locks generated from git are cached. May be shared between builds.
+     */
+    @Parameter(required = false, defaultValue = "${project.build.directory}/protolock-baselines")
+    private File baselineCacheDirectory;
 
-            try (InputStream in = this.getClass().getClassLoader().getResourceAsStream(protolockResourcePath)) {
-                if (in == null) {
-                    throw new MojoExecutionException(
-                        "OS not supported. Unable to find a protolock binary for the classifier " + classifier);
-                }
+    /**
+     * The number of protolock plugins to run at once. Plugins only read the lock data, so running them concurrently
+     * makes the check take as long as the slowest plugin rather than all of them together.
+     */
+    @Parameter(property = "pluginConcurrency", defaultValue = "4")
+    private int pluginConcurrency;
 
-                Files.copy(in, exePath);
+    /**
+     * The number of seconds after which a protolock plugin is killed and the check fails. Plugins may run for as
+     * long as they need when 0.
+     */
+    @Parameter(property = "pluginTimeout", defaultValue = "0")
+    private int pluginTimeout;
 
-                PosixFileAttributeView attributes = Files.getFileAttributeView(exePath, PosixFileAttributeView.class);
-                if (attributes != null) {
-                    attributes.setPermissions(PosixFilePermissions.fromString("rwxrwxr-x"));
-                }
-            } catch (IOException e) {
-                throw new MojoExecutionException("Unable to write the protolock binary", e);
+    /**
+     * Extra environment variables for protolock and its plugins, such as {@code GOGC}. They take precedence over the
+     * variables set by childCpus and childMemoryLimit.
+     */
+    @Parameter(required = false)
+    private Map<String, String> childEnvironment;
+
+    /**
+     * The number of CPUs protolock and its plugins may use at once, passed to them as {@code GOMAXPROCS}. With
+     * {@code auto}, the CPUs of the machine are divided between the modules Maven builds in parallel ({@code -T}).
+     */
+    @Parameter(property = "childCpus")
+    private String childCpus;
+
+    /**
+     * A soft memory limit for protolock and its plugins, such as {@code 512MiB}, passed to them as
+     * {@code GOMEMLIMIT}. With {@code auto}, half of the physical memory, or of the memory limit of the container, is
+     * divided between the modules Maven builds in parallel ({@code -T}).
+     */
+    @Parameter(property = "childMemoryLimit")
+    private String childMemoryLimit;
+
+    /**
+     * The nice level protolock and its plugins are run with, so that a check does not slow down the rest of the
+     * build. Ignored on Windows.
+     */
+    @Parameter(property = "childNiceness", defaultValue = "0")
+    private int childNiceness;
+
+    private final Set<Process> runningProcesses = ConcurrentHashMap.newKeySet();
+    private volatile ProtolockPluginRunner pluginRunner;
+    private volatile CompletableFuture<Void> commitPermit = CompletableFuture.completedFuture(null);
+    private ProtolockOutput protolockOutput;
+    private CheckResult checkResult;
+    private ChildProcessProfile childProcesses;
+    private String baselineCommit;
+    private ProtoShards.ShardReport shardReport;
+    private int checkedProtoFiles = -1;
+    private Path unfilteredLockFile;
+    private Path excludedLockFile;
+    private ResourceUsageReport resourceUsage;
+
+    /**
+     * Execute the plugin. When the start-check goal already started the same check in the background, waits for it and
+     * reports its result instead. A check started with a different configuration is cancelled and checked again.
+     *
+     * @throws MojoExecutionException thrown when execution of protolock fails.
+     * @throws MojoFailureException   thrown when compatibility check fails.
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        BackgroundCheck background = BackgroundCheck.take(project);
+        if (background != null) {
+            if (background.isSameCheck(this)) {
+                background.join(getLog());
+                return;
             }
+            getLog().warn("The check started in the background is configured differently from this one, "
+                + "so it is cancelled and the proto files are checked again");
+            background.cancel();
         }
+        runCheck();
+    }
 
-        // Resolve protolock plugins
-        List<String> pluginFileNames = new ArrayList<>();
-        if (plugins != null) {
-            for (String pluginSpec : plugins) {
-                if (pluginSpec.contains(":")) {
-                    // A maven spec
-                    Artifact plugin = createDependencyArtifact(pluginSpec);
-                    File pluginFile = resolveBinaryArtifact(plugin);
-                    pluginFileNames.add(pluginFile.getName());
-                } else {
-                    // Not a maven spec
-                    pluginFileNames.add(pluginSpec);
+    /**
+     * Runs the check in the calling thread.
+     *
+     * @throws MojoExecutionException thrown when execution of protolock fails.
+     * @throws MojoFailureException   thrown when compatibility check fails.
+     */
+    void runCheck() throws MojoExecutionException, MojoFailureException {
+        if (lockDir == null) {
+            lockDir = protoSourceRoot;
+        }
+        checkResult = new CheckResult(project.getArtifactId());
+        try {
+            // Modules sharing a lock directory take turns, and identical checks running at once are only run once
+            CheckResult reused = LockDirCoordinator.coordinate(new File(lockDir).getCanonicalFile().toPath(),
+                checkConfiguration(), checkResult, getLog(), this::check);
+            if (reused != null) {
+                checkResult.reuse(reused);
+                getLog().info("Reused the result of the identical check of " + lockDir + ": " + reused.getStatus());
+                if (reused.getStatus() == CheckResult.Status.FAILED) {
+                    throw new MojoFailureException(reused.getMessage());
                 }
             }
-        }
-
-        String pathEnv = "PATH=" + System.getenv("PATH");
-        if (plugins != null && !plugins.isEmpty()) {
-            if (classifier.startsWith("windows")) {
-                pathEnv += ";";
-            } else {
-                pathEnv += ":";
+        } catch (IOException e) {
+            checkResult.finish(CheckResult.Status.ERROR, e.getMessage(), emptyList());
+            throw new MojoExecutionException("Unable to resolve lockDir " + lockDir, e);
+        } catch (MojoExecutionException | MojoFailureException | RuntimeException e) {
+            if (checkResult.getStatus() == null) {
+                checkResult.finish(CheckResult.Status.ERROR, e.getMessage(), emptyList());
             }
-            pathEnv += protolockPluginDirectory.getAbsolutePath();
+            throw e;
+        } finally {
+            writeCheckResult();
         }
+    }
 
-        String pluginsOption = "";
-        if (!pluginFileNames.isEmpty()) {
-            pluginsOption = " --plugins=" + StringUtils.join(pluginFileNames.toArray(), ",");
+    private void check() throws MojoExecutionException, MojoFailureException {
+        // The same mojo may check more than once, so nothing is carried over from an earlier check
+        baselineCommit = null;
+        shardReport = null;
+        checkedProtoFiles = -1;
+        unfilteredLockFile = null;
+        excludedLockFile = null;
+
+        final String classifier = detectClassifier();
+        String exeExtension = executableExtension(classifier);
+        String pathValue = pluginSearchPath();
+        String pathEnv = "PATH=" + pathValue;
+
+        String protolockAdditionalOptions = getAdditionalOptions();
+        final String checkedOptions = protolockAdditionalOptions;
+        final boolean compressed = isCompressedLockFormat();
+        final File protoRoot = new File(protoSourceRoot);
+        final boolean sharded = isSharded();
+        childProcesses = ChildProcessProfile.of(childEnvironment, childCpus, childMemoryLimit, childNiceness,
+            session == null ? 1 : session.getRequest().getDegreeOfConcurrency());
+        if (!childProcesses.describe().isEmpty()) {
+            getLog().debug("protolock process profile: " + childProcesses.describe());
         }
 
         // Run protolock
-        try {
-
-            if (lockDir == null) {
-                lockDir = protoSourceRoot;
+        resourceUsage = new ResourceUsageReport(project.getArtifactId(), getLog());
+        try (Pipeline pipeline = new Pipeline("protolock-check"); ProtolockOutput output = createOutput()) {
+            protolockOutput = output;
+            baselineCommit = StringUtils.isEmpty(baselineRef) ? null : resolveBaseline(protoRoot);
+            recordBaseline();
+
+            // Extracting protolock, resolving plugins, preparing the lock and scanning the proto tree are
+            // independent, so they run concurrently
+            CompletableFuture<Path> protolock = pipeline.submit(() -> extractProtolock(classifier, false));
+            CompletableFuture<List<Path>> resolvedPlugins = resolvePlugins(pipeline, pathValue, exeExtension, false);
+            CompletableFuture<SortedMap<String, String>> protoFingerprints =
+                pipeline.submit(() -> ResidentCache.apiFingerprints(protoRoot.toPath()));
+            final CompletableFuture<ProtoSourceScan> protoScan = isEmpty(includes) && isEmpty(excludes) && !sharded
+                ? CompletableFuture.completedFuture(null)
+                : pipeline.submit(() -> new ProtoSourceScanner(includes, excludes).scan(protoRoot.toPath()));
+            // protolock only reads plain lock files, so a compressed lock is checked in a working directory. The lock
+            // of a baseline ref is only prepared once the check is known to be needed
+            CompletableFuture<String> workingLock;
+            if (baselineCommit != null) {
+                workingLock = null;
+            } else if (compressed) {
+                workingLock = pipeline.submit(this::expandCompressedLock);
+            } else {
+                workingLock = CompletableFuture.completedFuture(lockDir);
             }
 
-            String protolockAdditionalOptions = getAdditionalOptions();
+            Path exePath = Pipeline.join(protolock);
+            List<Path> pluginExecutables = Pipeline.join(resolvedPlugins);
+            SortedMap<String, String> apiFingerprints = Pipeline.join(protoFingerprints);
+            String fingerprint = Checksums.sha256(apiFingerprints.toString());
+
+            // A check that already passed with the same inputs, apart from comments and formatting in the proto
+            // files, does not need to run again
+            String inputs = checkInputs(exePath, pluginExecutables, checkedOptions, fingerprint);
+            Properties lastPassedCheck = readLastPassedCheck();
+            if (!sharded
+                && (ResidentCache.hasPassed(inputs) || inputs.equals(lastPassedCheck.getProperty(PASSED_INPUTS)))) {
+                getLog().info("No API-relevant change in the proto files or proto.lock since the last passing check.");
+                checkResult.finish(CheckResult.Status.UNCHANGED, null, emptyList());
+                return;
+            }
+            logApiChanges(lastPassedCheck, apiFingerprints);
 
-            Path lockFile = Paths.get(lockDir, "proto.lock");
-            File protoRoot = new File(protoSourceRoot);
+            if (baselineCommit != null) {
+                workingLock = pipeline.submit(() -> prepareBaselineLock(exePath, pathEnv, checkedOptions, protoRoot));
+            }
+            String workingLockDir = Pipeline.join(workingLock);
+            Path lockFile = Paths.get(workingLockDir, LockFiles.LOCK_FILE_NAME);
+            ProtoSourceScan scan = Pipeline.join(protoScan);
+            if (sharded) {
+                // The shard is checked in its own lock directory, against the part of proto.lock it is responsible for
+                ProtoShards shards = new ProtoShards(scan, shardCount);
+                Path shardLockDir = shardDirectory.toPath().resolve("shard-" + shardIndex);
+                Path shardLockFile = shardLockDir.resolve(LockFiles.LOCK_FILE_NAME);
+                Path excludedFragment = shardLockDir.resolve(LockFiles.EXCLUDED_LOCK_FILE_NAME);
+                Files.createDirectories(shardLockDir);
+                Files.deleteIfExists(shardLockFile);
+                Files.deleteIfExists(excludedFragment);
+                if (Files.exists(lockFile)) {
+                    LockFiles.filter(lockFile, shardLockFile,
+                        path -> !scan.isIgnored(path) && shards.isInShard(shardIndex, path));
+                    if (shardIndex == 0) {
+                        // Excluded proto files are in no shard, so the first one hands their definitions to
+                        // merge-shards as they are
+                        LockFiles.filter(lockFile, excludedFragment, scan::isIgnored);
+                    }
+                }
+                workingLockDir = shardLockDir.toString();
+                lockFile = shardLockFile;
+                protolockAdditionalOptions = withIgnored(protolockAdditionalOptions,
+                    shards.ignoredOutside(shardIndex, scan.getIgnored()));
+                checkedProtoFiles = shards.getFiles(shardIndex).size();
+                shardReport = new ProtoShards.ShardReport(shardIndex, shardCount, checkedProtoFiles);
+                getLog().info("Checking shard " + shardIndex + " of " + shardCount + ": "
+                    + checkedProtoFiles + " proto files");
+            } else if (scan != null) {
+                protolockAdditionalOptions = withIgnored(protolockAdditionalOptions, scan.getIgnored());
+                checkedProtoFiles = scan.getProtoFiles().size();
+                if (Files.exists(lockFile)) {
+                    // protolock commits to the lock it checks, so the excluded proto files are dropped from a copy
+                    // and merged back in when the lock is stored
+                    Path filteredLockDir = cacheDirectory.toPath().resolve("filtered");
+                    Path filteredLockFile = filteredLockDir.resolve(LockFiles.LOCK_FILE_NAME);
+                    Files.createDirectories(filteredLockDir);
+                    excludedLockFile = filteredLockDir.resolve(LockFiles.EXCLUDED_LOCK_FILE_NAME);
+                    int pruned = LockFiles.filter(lockFile, filteredLockFile, path -> !scan.isIgnored(path));
+                    LockFiles.filter(lockFile, excludedLockFile, scan::isIgnored);
+                    if (pruned > 0) {
+                        getLog().info("Excluded " + pruned + " proto files in " + lockFile + " from the check");
+                    }
+                    unfilteredLockFile = lockFile;
+                    workingLockDir = filteredLockDir.toString();
+                    lockFile = filteredLockFile;
+                }
+            }
             if (!Files.exists(lockFile)) {
-                Process protolockProcess = executeProtolock(exePath, "init",
-                    pathEnv, pluginsOption, protolockAdditionalOptions, protoRoot);
-                if (protolockProcess.waitFor() == RESULT_CODE_SUCCESS) {
+                awaitCommit();
+                int initResult = executeProtolock(exePath, "init",
+                    pathEnv, protolockAdditionalOptions, workingLockDir, protoRoot);
+                if (initResult == RESULT_CODE_SUCCESS) {
+                    storeLock(compressed, lockFile, false);
+                    checkResult.finish(CheckResult.Status.INITIALIZED, null, emptyList());
                     getLog().info("Initialized protolock.");
                 } else {
                     throw new MojoFailureException("Error initializing protolock. Check log for details");
                 }
             } else {
-                Process protolockStatusProcess = executeProtolock(exePath, "status",
-                    pathEnv, pluginsOption, protolockAdditionalOptions, protoRoot);
-                if (protolockStatusProcess.waitFor() == RESULT_CODE_SUCCESS) {
-                    Process protolockCommitProcess = executeProtolock(exePath, "commit",
-                        pathEnv, pluginsOption, protolockAdditionalOptions, protoRoot);
-                    if (protolockCommitProcess.waitFor() == RESULT_CODE_SUCCESS) {
+                List<ProtolockWarning> warnings = new ArrayList<>();
+                int statusResult = executeProtolock(exePath, "status",
+                    pathEnv, protolockAdditionalOptions, workingLockDir, protoRoot, warnings);
+                if (failFast && !allowBreakingChanges && !warnings.isEmpty()) {
+                    writeShardReport(shardReport == null ? null : shardReport.failed(warnings));
+                    String message = "Backwards compatibility check failed before running protolock plugins! "
+                        + "You can override this by specifying allowBreakingChanges=true";
+                    checkResult.finish(CheckResult.Status.FAILED, message, warnings);
+                    throw new MojoFailureException(message);
+                }
+                boolean compatible = statusResult == RESULT_CODE_SUCCESS;
+                if (!pluginExecutables.isEmpty()) {
+                    List<ProtolockWarning> pluginWarnings = runPlugins(exePath, pluginExecutables, pathValue,
+                        protolockAdditionalOptions, protoRoot, lockFile, warnings);
+                    for (ProtolockWarning warning : pluginWarnings) {
+                        output.warning(warning);
+                    }
+                    compatible &= pluginWarnings.isEmpty();
+                    warnings.addAll(pluginWarnings);
+                }
+
+                if (compatible) {
+                    awaitCommit();
+                    int commitResult = executeProtolock(exePath, "commit",
+                        pathEnv, protolockAdditionalOptions, workingLockDir, protoRoot);
+                    if (commitResult == RESULT_CODE_SUCCESS) {
+                        storeLock(compressed, lockFile, false);
+                        // Only a check that left all of its inputs as they were is known to pass when repeated
+                        if (!sharded
+                            && inputs.equals(checkInputs(exePath, pluginExecutables, checkedOptions, fingerprint))) {
+                            ResidentCache.passed(inputs);
+                            writeLastPassedCheck(inputs, apiFingerprints);
+                        }
+                        checkResult.finish(CheckResult.Status.PASSED, null, emptyList());
                         getLog().info("Backwards compatibility check passed.");
                     } else {
                         throw new MojoFailureException(
@@ -221,179 +452,514 @@ public class BackwardsCompatibilityCheckMojo extends AbstractMojo {
                     }
                 } else {
                     if (allowBreakingChanges) {
+                        awaitCommit();
                         protolockAdditionalOptions += " --force=true";
-                        Process protolockCommitProcess =
-                            executeProtolock(exePath, "commit", pathEnv, pluginsOption,
+                        int commitResult =
+                            executeProtolock(exePath, "commit", pathEnv,
                                 protolockAdditionalOptions,
-                                protoRoot);
-                        if (protolockCommitProcess.waitFor() == RESULT_CODE_SUCCESS) {
+                                workingLockDir, protoRoot);
+                        if (commitResult == RESULT_CODE_SUCCESS) {
+                            storeLock(compressed, lockFile, true);
+                            checkResult.finish(CheckResult.Status.BREAKING_CHANGES_ACCEPTED, null, warnings);
                             getLog().warn("Breaking changes accepted");
                         } else {
                             throw new MojoFailureException(
                                 "Error committing new protolock changes. Check log for details");
                         }
                     } else {
-                        throw new MojoFailureException(
-                            "Backwards compatibility check failed! "
-                                + "You can override this by specifying allowBreakingChanges=true");
+                        writeShardReport(shardReport == null ? null : shardReport.failed(warnings));
+                        String message = "Backwards compatibility check failed! "
+                            + "You can override this by specifying allowBreakingChanges=true";
+                        checkResult.finish(CheckResult.Status.FAILED, message, warnings);
+                        throw new MojoFailureException(message);
                     }
                 }
             }
         } catch (IOException | InterruptedException e) {
             throw new MojoExecutionException("An error occurred while running protolock", e);
+        } finally {
+            writeResourceUsage();
         }
     }
 
-    private String getAdditionalOptions() throws MojoFailureException {
-        if (options != null && options.toUpperCase().contains("--LOCKDIR")) {
-            throw new MojoFailureException("lockDir location must be specified on the plugin and not as "
-                + "an option passed to protolock command");
+    /**
+     * Kills the protolock and plugin processes of a check running in another thread, so that it ends promptly.
+     */
+    void cancel() {
+        commitPermit.cancel(false);
+        for (Process process : runningProcesses) {
+            process.destroyForcibly();
+        }
+        ProtolockPluginRunner runner = pluginRunner;
+        if (runner != null) {
+            runner.cancel();
         }
+    }
 
-        return (options == null ? "" : options);
+    /**
+     * Makes the check wait for {@link #allowCommit()} before it writes to lockDir, so that a check running in the
+     * background leaves proto.lock alone until the build joins it.
+     */
+    void deferCommit() {
+        commitPermit = new CompletableFuture<>();
+    }
 
+    /**
+     * Lets a check deferred by {@link #deferCommit()} write to lockDir.
+     */
+    void allowCommit() {
+        commitPermit.complete(null);
     }
 
-    private Process executeProtolock(Path exePath, String command, String pathEnv, String pluginsOption,
-                                     String otherOptions, File protoRoot) throws IOException {
+    private void awaitCommit() throws MojoExecutionException, MojoFailureException {
+        if (!commitPermit.isDone()) {
+            getLog().debug("Waiting for the build to join the check before committing to proto.lock");
+        }
+        Pipeline.join(commitPermit);
+    }
 
-        List<String> cmdLineParametersList = new ArrayList<>();
-        cmdLineParametersList.add(StringUtils.trim(exePath.toString()));
-        cmdLineParametersList.add(StringUtils.trim(command));
-        cmdLineParametersList.add("--lockdir=" + lockDir);
-        cmdLineParametersList.add("--protoroot=" + protoRoot.getAbsolutePath());
-        if (!StringUtils.trim(pluginsOption).isEmpty()) {
-            String[] separateArguments = StringUtils.split(StringUtils.trim(pluginsOption), " ");
-            for (String arg : separateArguments) {
-                cmdLineParametersList.add(arg);
-            }
+    /**
+     * Identifies the check by its lock directory and the configuration its outcome depends on.
+     *
+     * @throws MojoExecutionException if the lock directory can not be resolved.
+     */
+    String checkKey() throws MojoExecutionException {
+        String checkedLockDir = lockDir == null ? protoSourceRoot : lockDir;
+        try {
+            return new File(checkedLockDir).getCanonicalPath() + "\n" + checkConfiguration();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to resolve lockDir " + checkedLockDir, e);
         }
-        if (!StringUtils.trim(otherOptions).isEmpty()) {
-            String[] separateArguments = StringUtils.split(StringUtils.trim(otherOptions), " ");
-            for (String arg : separateArguments) {
-                cmdLineParametersList.add(arg);
+    }
+
+    /**
+     * Describes the configuration of the check that its outcome depends on, apart from the lock directory, so that
+     * identical checks of a shared lock directory can be recognized.
+     */
+    private String checkConfiguration() throws IOException {
+        return String.join("\n", new File(protoSourceRoot).getCanonicalPath(), String.valueOf(options),
+            String.valueOf(includes), String.valueOf(excludes), String.valueOf(lockFormat),
+            String.valueOf(allowBreakingChanges), String.valueOf(failFast), String.valueOf(baselineRef),
+            String.valueOf(plugins), String.valueOf(protolockArtifact), shardIndex + "/" + shardCount);
+    }
+
+    /**
+     * Records the lock file or git commit the proto files are checked against. The checksum identifies the lock file
+     * as it was before the check committed to it.
+     */
+    private void recordBaseline() throws IOException {
+        if (baselineCommit != null) {
+            checkResult.setBaseline(baselineRef + " (" + baselineCommit + ")", null);
+            return;
+        }
+        for (String lockFileName : new String[] {LockFiles.COMPRESSED_LOCK_FILE_NAME, LockFiles.LOCK_FILE_NAME}) {
+            Path storedLockFile = Paths.get(lockDir, lockFileName);
+            if (Files.exists(storedLockFile)) {
+                checkResult.setBaseline(storedLockFile.toString(), ResidentCache.sha256(storedLockFile));
+                return;
             }
         }
+        checkResult.setBaseline(Paths.get(lockDir, LockFiles.LOCK_FILE_NAME).toString(), null);
+    }
 
-        String[] cmdLineParameters = cmdLineParametersList.toArray(new String[0]);
-        getLog().info("protolock cmd line: " + String.join(" ", cmdLineParameters));
+    /**
+     * Keeps the outcome of the check for the compatibility-report goal, in the build and in the build directory.
+     */
+    private void writeCheckResult() {
+        try {
+            checkResult.store(project);
+        } catch (IOException e) {
+            getLog().warn("Unable to write " + CheckResult.resultFile(project) + ": " + e.getMessage());
+        }
+    }
 
-        Process protolockProcess =
-            Runtime.getRuntime().exec(cmdLineParameters, new String[] {pathEnv}, project.getBasedir());
-        BufferedReader stdInput = new BufferedReader(new InputStreamReader(protolockProcess.getInputStream()));
-        String s;
-        while ((s = stdInput.readLine()) != null) {
-            getLog().info(s);
+    /**
+     * Writes the resources used by protolock processes, even when the check failed, so that a failed or killed run
+     * can still be sized.
+     */
+    private void writeResourceUsage() {
+        Path reportFile = Paths.get(project.getBuild().getDirectory(), "protolock-reports", "resource-usage.json");
+        try {
+            resourceUsage.write(reportFile);
+        } catch (IOException e) {
+            getLog().warn("Unable to write " + reportFile + ": " + e.getMessage());
         }
-        return protolockProcess;
     }
 
     /**
-     * Creates a dependency artifact from a specification in
-     * {@code groupId:artifactId:version[:type[:classifier]]} format.
-     *
-     * @param artifactSpec artifact specification.
-     * @return artifact object instance.
-     */
-    private Artifact createDependencyArtifact(final String artifactSpec) throws MojoExecutionException {
-        final String[] parts = artifactSpec.split(":");
-        if (parts.length < 3 || parts.length > 5) {
-            throw new MojoExecutionException(
-                "Invalid artifact specification format"
-                    + ", expected: groupId:artifactId:version[:type[:classifier]]"
-                    + ", actual: " + artifactSpec);
-        }
-        final String type = parts.length >= 4 ? parts[3] : "exe";
-        final String classifier = parts.length == 5 ? parts[4] : null;
-
-        final String groupId = parts[0];
-        final String artifactId = parts[1];
-        final String version = parts[2];
-
-        Dependency dependency = new Dependency();
-        dependency.setGroupId(groupId);
-        dependency.setArtifactId(artifactId);
-        dependency.setVersion(version);
-        dependency.setType(type);
-        dependency.setClassifier(classifier);
-        dependency.setScope(Artifact.SCOPE_RUNTIME);
-
-        return repositorySystem.createDependencyArtifact(dependency);
+     * Runs the configured protolock plugins against the committed lock and a lock generated from the current proto
+     * tree. Plugin results are cached, so unchanged plugins are not re-run against unchanged lock data, and the
+     * remaining plugins run concurrently.
+     */
+    private List<ProtolockWarning> runPlugins(Path exePath, List<Path> pluginExecutables, String pathValue,
+                                              String protolockAdditionalOptions, File protoRoot, Path lockFile,
+                                              List<ProtolockWarning> protolockWarnings)
+        throws IOException, InterruptedException, MojoExecutionException {
+        // Generate the updated lock data in a scratch lock directory, leaving the committed lock untouched
+        Path updatedLockDir = cacheDirectory.toPath().resolve("updated");
+        FileUtils.deleteDirectory(updatedLockDir.toFile());
+        Files.createDirectories(updatedLockDir);
+        int initResult = executeProtolock(exePath, "init",
+            "PATH=" + pathValue, protolockAdditionalOptions, updatedLockDir.toString(), protoRoot);
+        if (initResult != RESULT_CODE_SUCCESS) {
+            throw new MojoExecutionException("Error generating updated protolock data. Check log for details");
+        }
+
+        pluginRunner = new ProtolockPluginRunner(cacheDirectory.toPath().resolve("plugins"),
+            singletonMap("PATH", pathValue), childProcesses, project.getBasedir(), resourceUsage, getLog())
+            .withLimits(pluginConcurrency, pluginTimeout);
+        return pluginRunner.run(pluginExecutables, lockFile, updatedLockDir.resolve("proto.lock"),
+            protolockWarnings);
     }
 
     /**
-     * Downloads a binary artifact and installs it in the protolock plugin directory.
-     *
-     * @param artifact the artifact to download.
-     * @return a handle to the downloaded file.
+     * Adds paths left out of the check to protolock's {@code --ignore} option, merging them with any paths already
+     * ignored through {@code options}.
      */
-    private File resolveBinaryArtifact(final Artifact artifact) throws MojoExecutionException {
-        final ArtifactResolutionResult result;
-        try {
-            final ArtifactResolutionRequest request = new ArtifactResolutionRequest()
-                .setArtifact(project.getArtifact())
-                .setResolveRoot(false)
-                .setResolveTransitively(false)
-                .setArtifactDependencies(singleton(artifact))
-                .setManagedVersionMap(emptyMap())
-                .setLocalRepository(localRepository)
-                .setRemoteRepositories(remoteRepositories)
-                .setOffline(session.isOffline())
-                .setForceUpdate(session.getRequest().isUpdateSnapshots())
-                .setServers(session.getRequest().getServers())
-                .setMirrors(session.getRequest().getMirrors())
-                .setProxies(session.getRequest().getProxies());
+    private static String withIgnored(String protolockOptions, List<String> ignored) {
+        if (ignored.isEmpty()) {
+            return protolockOptions;
+        }
+        List<String> ignoredPaths = new ArrayList<>();
+        for (String path : ignored) {
+            ignoredPaths.add(path.replace('/', File.separatorChar));
+        }
+        String ignoreList = String.join(",", ignoredPaths);
 
-            result = repositorySystem.resolve(request);
+        Matcher matcher = IGNORE_OPTION.matcher(protolockOptions);
+        if (matcher.find()) {
+            return matcher.replaceFirst(Matcher.quoteReplacement("--ignore=" + matcher.group(1) + "," + ignoreList));
+        }
+        return protolockOptions + " --ignore=" + ignoreList;
+    }
 
-            resolutionErrorHandler.throwErrors(request, result);
-        } catch (final ArtifactResolutionException e) {
-            throw new MojoExecutionException("Unable to resolve artifact: " + e.getMessage(), e);
+    /**
+     * Fingerprints every input of the check: its configuration, the protolock and plugin binaries, the API of the
+     * proto files and the stored lock.
+     */
+    private String checkInputs(Path exePath, List<Path> pluginExecutables, String checkedOptions,
+                               String protoFingerprint) throws IOException {
+        List<String> inputs = new ArrayList<>();
+        inputs.add(new File(protoSourceRoot).getCanonicalPath());
+        inputs.add(new File(lockDir).getCanonicalPath());
+        inputs.add(checkedOptions);
+        inputs.add(String.valueOf(includes));
+        inputs.add(String.valueOf(excludes));
+        inputs.add(String.valueOf(lockFormat));
+        inputs.add(String.valueOf(allowBreakingChanges));
+        inputs.add(String.valueOf(baselineCommit));
+        inputs.add(ResidentCache.sha256(exePath));
+        for (Path plugin : pluginExecutables) {
+            inputs.add(ResidentCache.sha256(plugin));
+        }
+        inputs.add(protoFingerprint);
+        for (String lockFileName : new String[] {LockFiles.LOCK_FILE_NAME, LockFiles.COMPRESSED_LOCK_FILE_NAME}) {
+            Path storedLockFile = Paths.get(lockDir, lockFileName);
+            inputs.add(Files.exists(storedLockFile) ? ResidentCache.sha256(storedLockFile) : "-");
         }
+        return Checksums.sha256(String.join("\n", inputs));
+    }
 
-        final Set<Artifact> artifacts = result.getArtifacts();
+    private Properties readLastPassedCheck() {
+        Properties lastPassedCheck = new Properties();
+        Path file = cacheDirectory.toPath().resolve(LAST_PASSED_CHECK);
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                lastPassedCheck.load(reader);
+            } catch (IOException | IllegalArgumentException e) {
+                getLog().warn("Ignoring unreadable " + file + ": " + e.getMessage());
+                lastPassedCheck.clear();
+            }
+        }
+        return lastPassedCheck;
+    }
 
-        if (artifacts == null || artifacts.isEmpty()) {
-            throw new MojoExecutionException("Unable to resolve artifact");
+    /**
+     * Records the inputs of a passing check, and the API fingerprint of each proto file, so that later builds can
+     * skip the check and report which files changed.
+     */
+    private void writeLastPassedCheck(String inputs, SortedMap<String, String> apiFingerprints) throws IOException {
+        Properties lastPassedCheck = new Properties();
+        lastPassedCheck.setProperty(PASSED_INPUTS, inputs);
+        for (Map.Entry<String, String> file : apiFingerprints.entrySet()) {
+            lastPassedCheck.setProperty(PASSED_FILE_PREFIX + file.getKey(), file.getValue());
         }
+        Files.createDirectories(cacheDirectory.toPath());
+        try (Writer writer = Files.newBufferedWriter(cacheDirectory.toPath().resolve(LAST_PASSED_CHECK),
+            StandardCharsets.UTF_8)) {
+            lastPassedCheck.store(writer, null);
+        }
+    }
 
-        final Artifact resolvedBinaryArtifact = artifacts.iterator().next();
-        if (getLog().isDebugEnabled()) {
-            getLog().debug("Resolved artifact: " + resolvedBinaryArtifact);
+    private void logApiChanges(Properties lastPassedCheck, SortedMap<String, String> apiFingerprints) {
+        if (lastPassedCheck.isEmpty()) {
+            return;
+        }
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> file : apiFingerprints.entrySet()) {
+            if (!file.getValue().equals(lastPassedCheck.getProperty(PASSED_FILE_PREFIX + file.getKey()))) {
+                changed.add(file.getKey());
+            }
+        }
+        for (String key : lastPassedCheck.stringPropertyNames()) {
+            if (key.startsWith(PASSED_FILE_PREFIX)
+                && !apiFingerprints.containsKey(key.substring(PASSED_FILE_PREFIX.length()))) {
+                changed.add(key.substring(PASSED_FILE_PREFIX.length()));
+            }
         }
+        if (!changed.isEmpty()) {
+            getLog().info(changed.size() + " of " + apiFingerprints.size()
+                + " proto files have API-relevant changes since the last passing check");
+            for (String path : changed) {
+                getLog().debug("  " + path);
+            }
+        }
+    }
 
-        // Copy the file to the project build directory and make it executable
-        final File sourceFile = resolvedBinaryArtifact.getFile();
-        final String sourceFileName = sourceFile.getName();
-        final String targetFileName;
-        if (Os.isFamily(Os.FAMILY_WINDOWS) && !sourceFileName.endsWith(".exe")) {
-            targetFileName = sourceFileName + ".exe";
-        } else {
-            targetFileName = sourceFileName;
+    private boolean isSharded() throws MojoFailureException {
+        if (shardCount < 1 || shardIndex < 0 || shardIndex >= shardCount) {
+            throw new MojoFailureException("Invalid shard " + shardIndex + " of " + shardCount
+                + ". shardIndex must be between 0 and shardCount - 1");
         }
-        final File targetFile = new File(protolockPluginDirectory, targetFileName);
-        if (targetFile.exists()) {
-            // The file must have already been copied in a prior plugin execution/invocation
-            getLog().debug("Executable file already exists: " + targetFile.getAbsolutePath());
-            return targetFile;
+        return shardCount > 1;
+    }
+
+    private void writeShardReport(ProtoShards.ShardReport report) throws IOException {
+        if (report != null) {
+            Path reportFile = shardDirectory.toPath().resolve("shard-" + shardIndex + ".json");
+            ProtoShards.writeReport(reportFile, report);
+            getLog().info("Shard report written to " + reportFile);
         }
-        try {
-            FileUtils.forceMkdir(protolockPluginDirectory);
-        } catch (final IOException e) {
-            throw new MojoExecutionException("Unable to create directory " + protolockPluginDirectory, e);
+    }
+
+    private boolean isCompressedLockFormat() throws MojoFailureException {
+        if (LOCK_FORMAT_GZIP.equals(lockFormat)) {
+            return true;
+        }
+        if (lockFormat == null || LOCK_FORMAT_PLAIN.equals(lockFormat)) {
+            return false;
+        }
+        throw new MojoFailureException("Unsupported lockFormat " + lockFormat + ". Use " + LOCK_FORMAT_PLAIN
+            + " or " + LOCK_FORMAT_GZIP);
+    }
+
+    /**
+     * Prepares the working lock directory for a compressed lock, expanding proto.lock.gz into it. A plain proto.lock
+     * in lockDir is copied instead, so that it is migrated when the check commits.
+     *
+     * @return the working lock directory.
+     */
+    private String expandCompressedLock() throws IOException {
+        Path workingLockDir = Paths.get(project.getBuild().getDirectory(), "protolock-lock");
+        Files.createDirectories(workingLockDir);
+        Path workingLockFile = workingLockDir.resolve(LockFiles.LOCK_FILE_NAME);
+        Files.deleteIfExists(workingLockFile);
+
+        Path compressedLockFile = Paths.get(lockDir, LockFiles.COMPRESSED_LOCK_FILE_NAME);
+        Path plainLockFile = Paths.get(lockDir, LockFiles.LOCK_FILE_NAME);
+        if (Files.exists(compressedLockFile)) {
+            LockFiles.decompress(compressedLockFile, workingLockFile);
+        } else if (Files.exists(plainLockFile)) {
+            getLog().info("Migrating " + plainLockFile + " to " + LockFiles.COMPRESSED_LOCK_FILE_NAME);
+            Files.copy(plainLockFile, workingLockFile);
+        }
+        return workingLockDir.toString();
+    }
+
+    /**
+     * Resolves baselineRef to a commit.
+     */
+    private String resolveBaseline(File protoRoot) throws IOException, InterruptedException, MojoFailureException {
+        if (!protoRoot.isDirectory()) {
+            throw new MojoFailureException("baselineRef requires an existing protoSourceRoot");
         }
         try {
-            FileUtils.copyFile(sourceFile, targetFile);
-        } catch (final IOException e) {
-            throw new MojoExecutionException("Unable to copy the file to " + protolockPluginDirectory, e);
+            return Git.output(protoRoot, "rev-parse", "--verify", "--quiet", baselineRef + "^{commit}");
+        } catch (IOException e) {
+            throw new MojoFailureException("Unable to resolve baselineRef " + baselineRef + " to a git commit");
+        }
+    }
+
+    /**
+     * Prepares a working lock directory holding the lock of the proto tree at the baseline commit. The lock is
+     * generated by running protolock init on the tree read from git, unless it is already cached.
+     *
+     * @return the working lock directory.
+     */
+    private String prepareBaselineLock(Path exePath, String pathEnv, String options, File protoRoot)
+        throws IOException, InterruptedException, MojoFailureException {
+        // The lock also depends on where the proto root is in the repository, the options and the protolock binary
+        String prefix = Git.output(protoRoot, "rev-parse", "--show-prefix");
+        String key = baselineCommit + "-"
+            + Checksums.sha256(prefix + "\n" + options + "\n" + ResidentCache.sha256(exePath)).substring(0, 12);
+        Path cacheDir = baselineCacheDirectory.toPath();
+        Path cachedLockDir = cacheDir.resolve(key);
+        if (Files.exists(cachedLockDir.resolve(LockFiles.LOCK_FILE_NAME))) {
+            getLog().info("Using the cached lock for baseline " + baselineRef + " (" + baselineCommit + ")");
+        } else {
+            Files.createDirectories(cacheDir);
+            Path tree = Files.createTempDirectory(cacheDir, key + ".tree");
+            Path generatedLockDir = Files.createTempDirectory(cacheDir, key + ".lock");
+            try {
+                String treeRef = baselineCommit + ":./";
+                int protoFiles = Git.succeeds(protoRoot, "cat-file", "-e", treeRef)
+                    ? Git.writeTree(protoRoot, Git.output(protoRoot, "rev-parse", treeRef), tree,
+                        path -> path.endsWith(".proto"))
+                    : 0;
+                int initResult = executeProtolock(exePath, "init", pathEnv, options, generatedLockDir.toString(),
+                    tree.toFile());
+                if (initResult != RESULT_CODE_SUCCESS) {
+                    throw new MojoFailureException("Error initializing protolock for baseline " + baselineRef
+                        + ". Check log for details");
+                }
+                try {
+                    Files.move(generatedLockDir, cachedLockDir, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException | DirectoryNotEmptyException e) {
+                    // Another build generated the same baseline first
+                }
+                getLog().info("Generated the lock for baseline " + baselineRef + " (" + baselineCommit + ") from "
+                    + protoFiles + " proto files");
+            } finally {
+                FileUtils.deleteDirectory(tree.toFile());
+                FileUtils.deleteDirectory(generatedLockDir.toFile());
+            }
         }
-        if (!Os.isFamily(Os.FAMILY_WINDOWS)) {
-            targetFile.setExecutable(true);
+
+        // protolock updates the lock it checks, so the cached lock is checked through a copy
+        Path workingLockDir = Paths.get(project.getBuild().getDirectory(), "protolock-baseline");
+        Files.createDirectories(workingLockDir);
+        Files.copy(cachedLockDir.resolve(LockFiles.LOCK_FILE_NAME), workingLockDir.resolve(LockFiles.LOCK_FILE_NAME),
+            StandardCopyOption.REPLACE_EXISTING);
+        return workingLockDir.toString();
+    }
+
+    /**
+     * Stores the lock protolock committed to in lockDir, compressing it if needed. When checking a shard, the lock
+     * is left in the shard directory as a fragment for merge-shards instead, and a lock checked against a baseline
+     * from git is not stored at all. A lock checked without its excluded proto files gets them back.
+     */
+    private void storeLock(boolean compressed, Path lockFile, boolean breakingChangesAccepted) throws IOException {
+        if (shardReport != null) {
+            writeShardReport(shardReport.passed(breakingChangesAccepted));
+            return;
         }
+        if (baselineCommit != null) {
+            return;
+        }
+        if (unfilteredLockFile != null) {
+            LockFiles.merge(Arrays.asList(lockFile, excludedLockFile), unfilteredLockFile);
+            lockFile = unfilteredLockFile;
+        }
+        if (!compressed) {
+            return;
+        }
+        Files.createDirectories(Paths.get(lockDir));
+        LockFiles.compress(lockFile, Paths.get(lockDir, LockFiles.COMPRESSED_LOCK_FILE_NAME));
+        Files.deleteIfExists(Paths.get(lockDir, LockFiles.LOCK_FILE_NAME));
+    }
 
-        if (getLog().isDebugEnabled()) {
-            getLog().debug("Executable file: " + targetFile.getAbsolutePath());
+    private ProtolockOutput createOutput() throws IOException {
+        if (outputLimit <= 0) {
+            return new ProtolockOutput(getLog());
+        }
+        return new ProtolockOutput(getLog(), outputLimit, outputDirectory.toPath().resolve("protolock.log"));
+    }
+
+    private static boolean isEmpty(List<String> list) {
+        return list == null || list.isEmpty();
+    }
+
+    private String getAdditionalOptions() throws MojoFailureException {
+        if (options != null && options.toUpperCase().contains("--LOCKDIR")) {
+            throw new MojoFailureException("lockDir location must be specified on the plugin and not as "
+                + "an option passed to protolock command");
+        }
+
+        return (options == null ? "" : options);
+
+    }
+
+    /**
+     * Runs a protolock command and waits for it to exit, forwarding its output.
+     *
+     * @return the exit code of protolock.
+     */
+    private int executeProtolock(Path exePath, String command, String pathEnv, String otherOptions,
+                                 String lockDirectory, File protoRoot)
+        throws IOException, InterruptedException {
+        return executeProtolock(exePath, command, pathEnv, otherOptions, lockDirectory, protoRoot, null);
+    }
+
+    /**
+     * Runs a protolock command and waits for it to exit, forwarding its output and collecting the warnings it reports.
+     *
+     * @return the exit code of protolock.
+     */
+    private int executeProtolock(Path exePath, String command, String pathEnv, String otherOptions,
+                                 String lockDirectory, File protoRoot, List<ProtolockWarning> warnings)
+        throws IOException, InterruptedException {
+
+        List<String> cmdLineParametersList = new ArrayList<>();
+        cmdLineParametersList.add(StringUtils.trim(exePath.toString()));
+        cmdLineParametersList.add(StringUtils.trim(command));
+        cmdLineParametersList.add("--lockdir=" + lockDirectory);
+        cmdLineParametersList.add("--protoroot=" + protoRoot.getAbsolutePath());
+        if (!StringUtils.trim(otherOptions).isEmpty()) {
+            String[] separateArguments = StringUtils.split(StringUtils.trim(otherOptions), " ");
+            for (String arg : separateArguments) {
+                cmdLineParametersList.add(arg);
+            }
+        }
+
+        String[] cmdLineParameters = cmdLineParametersList.toArray(new String[0]);
+        String commandLine = String.join(" ", cmdLineParameters);
+        protolockOutput.command("protolock cmd line: " + commandLine);
+
+        try (CheckEvents.Phase phase = CheckEvents.protolock(project.getArtifactId(), commandLine)) {
+            if (phase.isRecording()) {
+                phase.setProtoCount(countProtoFiles(protoRoot));
+            }
+            Process protolockProcess = Runtime.getRuntime().exec(
+                childProcesses.command(Arrays.asList(cmdLineParameters)).toArray(new String[0]),
+                childProcesses.environment(pathEnv), project.getBasedir());
+            runningProcesses.add(protolockProcess);
+            ProcessResourceMonitor monitor =
+                ProcessResourceMonitor.start("protolock " + command, commandLine, protolockProcess);
+            try {
+                BufferedReader stdInput =
+                    new BufferedReader(new InputStreamReader(protolockProcess.getInputStream()));
+                String s;
+                while ((s = stdInput.readLine()) != null) {
+                    protolockOutput.line(s);
+                    ProtolockWarning warning = ProtolockWarning.parse(s);
+                    if (warning != null && warnings != null) {
+                        warnings.add(warning);
+                    }
+                }
+                monitor.sampleBeforeExit();
+                int exitCode = protolockProcess.waitFor();
+                phase.setExitCode(exitCode);
+                return exitCode;
+            } finally {
+                resourceUsage.add(monitor.stop());
+                runningProcesses.remove(protolockProcess);
+            }
+        }
+    }
+
+    /**
+     * Counts the proto files protolock checks in a tree. In the checked tree, files left out by includes, excludes or
+     * sharding are not counted.
+     */
+    private int countProtoFiles(File protoRoot) throws IOException {
+        if (checkedProtoFiles >= 0 && protoRoot.getAbsoluteFile().equals(new File(protoSourceRoot).getAbsoluteFile())) {
+            return checkedProtoFiles;
+        }
+        if (!protoRoot.isDirectory()) {
+            return 0;
+        }
+        try (Stream<Path> paths = Files.walk(protoRoot.toPath())) {
+            return (int) paths.filter(path -> path.toString().endsWith(".proto")).count();
         }
-        return targetFile;
     }
 }
@@ -0,0 +1,112 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+/**
+ * Records the phases of a compatibility check as Java Flight Recorder events. On a JVM without JFR, and for event
+ * types that are not enabled in a running recording, every phase is a no-op.
+ */
+final class CheckEvents {
+
+    private static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    private CheckEvents() {
+    }
+
+    /**
+     * Begins recording the extraction of the protolock binary.
+     *
+     * @param module     the module being checked.
+     * @param classifier the OS classifier of the binary.
+     * @return the phase, which must be closed when the extraction ends.
+     */
+    static Phase extraction(String module, String classifier) {
+        return JFR_AVAILABLE ? JfrEvents.extraction(module, classifier) : Phase.NONE;
+    }
+
+    /**
+     * Begins recording the resolution of a binary artifact.
+     *
+     * @param module   the module being checked.
+     * @param artifact the artifact being resolved.
+     * @return the phase, which must be closed when the resolution ends.
+     */
+    static Phase resolution(String module, String artifact) {
+        return JFR_AVAILABLE ? JfrEvents.resolution(module, artifact) : Phase.NONE;
+    }
+
+    /**
+     * Begins recording a protolock invocation.
+     *
+     * @param module  the module being checked.
+     * @param command the protolock command line.
+     * @return the phase, which must be closed when protolock exits.
+     */
+    static Phase protolock(String module, String command) {
+        return JFR_AVAILABLE ? JfrEvents.protolock(module, command) : Phase.NONE;
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, CheckEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * A timed phase of a check.
+     */
+    interface Phase extends AutoCloseable {
+
+        /**
+         * A phase that records nothing.
+         */
+        Phase NONE = new Phase() {
+            @Override
+            public boolean isRecording() {
+                return false;
+            }
+
+            @Override
+            public void setProtoCount(int protoCount) {
+            }
+
+            @Override
+            public void setExitCode(int exitCode) {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        /**
+         * Determines whether the phase will be recorded. Values that are expensive to compute should only be set
+         * when this is true.
+         */
+        boolean isRecording();
+
+        /**
+         * Sets the number of proto files the phase operated on.
+         */
+        void setProtoCount(int protoCount);
+
+        /**
+         * Sets the exit code of the process run by the phase.
+         */
+        void setExitCode(int exitCode);
+
+        /**
+         * Ends the phase and commits its event.
+         */
+        @Override
+        void close();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * The outcome of one execution of the backwards compatibility check. It is kept in the context of the checked project,
+ * for goals later in the same build, and written to {@code protolock-reports/check-result.json} in its build
+ * directory, so that reports can be produced without checking again.
+ */
+final class CheckResult {
+
+    /**
+     * The key the result is stored under in the context of the checked project.
+     */
+    static final String CONTEXT_KEY = CheckResult.class.getName();
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    /**
+     * How a check ended.
+     */
+    enum Status {
+        /** The proto files are compatible with the baseline. */
+        PASSED,
+        /** There was no proto.lock yet, and one was created. */
+        INITIALIZED,
+        /** Nothing that affects the API changed since the last passing check, which was not repeated. */
+        UNCHANGED,
+        /** Breaking changes were found and accepted with allowBreakingChanges. */
+        BREAKING_CHANGES_ACCEPTED,
+        /** Breaking changes were found. */
+        FAILED,
+        /** The check could not be run. */
+        ERROR
+    }
+
+    private String module;
+    private Status status;
+    private String message;
+    private String baseline;
+    private String baselineChecksum;
+    private long startedAt;
+    private long durationMillis;
+    private List<ProtolockWarning> warnings = new ArrayList<>();
+
+    CheckResult(String module) {
+        this.module = module;
+        this.startedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Gets the file a project's result is written to.
+     *
+     * @param project the checked project.
+     * @return the result file.
+     */
+    static Path resultFile(MavenProject project) {
+        return Paths.get(project.getBuild().getDirectory(), "protolock-reports", "check-result.json");
+    }
+
+    /**
+     * Finds the result of a project's check, from the current build or, failing that, from its build directory.
+     *
+     * @param project the checked project.
+     * @return the result, or null if the project was not checked.
+     * @throws IOException if the result file can not be read.
+     */
+    static CheckResult find(MavenProject project) throws IOException {
+        Object result = project.getContextValue(CONTEXT_KEY);
+        if (result instanceof CheckResult) {
+            return (CheckResult) result;
+        }
+        Path resultFile = resultFile(project);
+        return Files.exists(resultFile) ? read(resultFile) : null;
+    }
+
+    /**
+     * Reads a result.
+     *
+     * @param resultFile the file to read.
+     * @return the result.
+     * @throws IOException if the result can not be read.
+     */
+    static CheckResult read(Path resultFile) throws IOException {
+        try (Reader reader = Files.newBufferedReader(resultFile, StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, CheckResult.class);
+        }
+    }
+
+    /**
+     * Writes the result to the build directory of the checked project and keeps it in the project's context.
+     *
+     * @param project the checked project.
+     * @throws IOException if the result can not be written.
+     */
+    void store(MavenProject project) throws IOException {
+        project.setContextValue(CONTEXT_KEY, this);
+        Path resultFile = resultFile(project);
+        Files.createDirectories(resultFile.toAbsolutePath().getParent());
+        try (Writer writer = Files.newBufferedWriter(resultFile, StandardCharsets.UTF_8)) {
+            GSON.toJson(this, writer);
+        }
+    }
+
+    /**
+     * Records what the proto files were checked against.
+     *
+     * @param baseline         the lock file or git commit checked against.
+     * @param baselineChecksum the checksum of the lock file, or null.
+     */
+    void setBaseline(String baseline, String baselineChecksum) {
+        this.baseline = baseline;
+        this.baselineChecksum = baselineChecksum;
+    }
+
+    /**
+     * Records how the check ended.
+     *
+     * @param status   the outcome.
+     * @param message  the failure message, or null.
+     * @param warnings the breaking changes reported.
+     */
+    void finish(Status status, String message, List<ProtolockWarning> warnings) {
+        this.status = status;
+        this.message = message;
+        this.warnings = new ArrayList<>(warnings);
+        this.durationMillis = System.currentTimeMillis() - startedAt;
+    }
+
+    /**
+     * Records the outcome of an identical check that ran at the same time, instead of checking again.
+     *
+     * @param other the result of the identical check.
+     */
+    void reuse(CheckResult other) {
+        setBaseline(other.baseline, other.baselineChecksum);
+        finish(other.status, other.message, other.warnings);
+    }
+
+    /**
+     * Gets the artifactId of the checked module.
+     */
+    String getModule() {
+        return module;
+    }
+
+    /**
+     * Gets how the check ended.
+     */
+    Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Gets the failure message, if any.
+     */
+    String getMessage() {
+        return message;
+    }
+
+    /**
+     * Gets the lock file or git commit the proto files were checked against.
+     */
+    String getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * Gets the checksum of the lock file checked against, if any.
+     */
+    String getBaselineChecksum() {
+        return baselineChecksum;
+    }
+
+    /**
+     * Gets the time the check started, in milliseconds since the epoch.
+     */
+    long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Gets how long the check took.
+     */
+    long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Gets the breaking changes reported.
+     */
+    List<ProtolockWarning> getWarnings() {
+        return warnings;
+    }
+}
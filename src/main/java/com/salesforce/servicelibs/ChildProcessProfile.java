@@ -0,0 +1,227 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.shared.utils.Os;
+import org.apache.maven.shared.utils.StringUtils;
+
+/**
+ * The environment and scheduling priority that protolock and its plugins are run with. Both are Go programs, whose
+ * runtime sizes itself for the whole machine unless told otherwise through {@code GOMAXPROCS} and
+ * {@code GOMEMLIMIT}. When the limits are derived automatically, the machine is shared between the modules that Maven
+ * builds in parallel.
+ */
+final class ChildProcessProfile {
+
+    /**
+     * The value of a limit that is derived from the machine and the number of modules built in parallel.
+     */
+    static final String AUTO = "auto";
+
+    private static final long MIB = 1024 * 1024;
+
+    private final Map<String, String> environment;
+    private final int niceness;
+
+    private ChildProcessProfile(Map<String, String> environment, int niceness) {
+        this.environment = environment;
+        this.niceness = niceness;
+    }
+
+    /**
+     * Creates a profile.
+     *
+     * @param environment       extra environment variables, which take precedence over the limits. May be null.
+     * @param cpus              the value of {@code GOMAXPROCS}, {@code auto}, or empty to leave it unset.
+     * @param memoryLimit       the value of {@code GOMEMLIMIT}, such as {@code 512MiB}, {@code auto}, or empty to
+     *                          leave it unset.
+     * @param niceness          the nice level to run with, or 0 to run at the priority of Maven.
+     * @param parallelModules   the number of modules Maven builds in parallel.
+     * @return the profile.
+     * @throws MojoExecutionException if cpus is not a number.
+     */
+    static ChildProcessProfile of(Map<String, String> environment, String cpus, String memoryLimit, int niceness,
+                                  int parallelModules) throws MojoExecutionException {
+        int share = Math.max(1, parallelModules);
+        Map<String, String> variables = new LinkedHashMap<>();
+        if (AUTO.equalsIgnoreCase(StringUtils.trim(cpus))) {
+            int processors = Runtime.getRuntime().availableProcessors();
+            variables.put("GOMAXPROCS", String.valueOf(Math.max(1, processors / share)));
+        } else if (StringUtils.isNotBlank(cpus)) {
+            try {
+                variables.put("GOMAXPROCS", String.valueOf(Integer.parseInt(cpus.trim())));
+            } catch (NumberFormatException e) {
+                throw new MojoExecutionException("childCpus must be a number or " + AUTO + ": " + cpus, e);
+            }
+        }
+        if (AUTO.equalsIgnoreCase(StringUtils.trim(memoryLimit))) {
+            long physicalMemory = physicalMemory();
+            if (physicalMemory > 0) {
+                // Half of the machine is left to the Maven JVMs themselves
+                variables.put("GOMEMLIMIT", Math.max(1, physicalMemory / 2 / share / MIB) + "MiB");
+            }
+        } else if (StringUtils.isNotBlank(memoryLimit)) {
+            variables.put("GOMEMLIMIT", memoryLimit.trim());
+        }
+        if (environment != null) {
+            variables.putAll(environment);
+        }
+        return new ChildProcessProfile(Collections.unmodifiableMap(variables), niceness);
+    }
+
+    /**
+     * Returns the environment of a child process.
+     *
+     * @param base the variables the child process needs, such as {@code PATH}.
+     * @return the base variables together with the variables of the profile.
+     */
+    Map<String, String> environment(Map<String, String> base) {
+        Map<String, String> variables = new LinkedHashMap<>(base);
+        variables.putAll(environment);
+        return variables;
+    }
+
+    /**
+     * Returns the environment of a child process, in the {@code name=value} form taken by {@link Runtime#exec}.
+     *
+     * @param base the variables the child process needs, in {@code name=value} form.
+     * @return the base variables together with the variables of the profile.
+     */
+    String[] environment(String... base) {
+        Map<String, String> variables = new LinkedHashMap<>();
+        for (String variable : base) {
+            int equals = variable.indexOf('=');
+            variables.put(variable.substring(0, equals), variable.substring(equals + 1));
+        }
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String, String> variable : environment(variables).entrySet()) {
+            result.add(variable.getKey() + "=" + variable.getValue());
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the command line of a child process, run through {@code nice} when a nice level is set. The nice level
+     * is ignored on Windows.
+     *
+     * @param command the command line of the child process.
+     * @return the command line to run.
+     */
+    List<String> command(List<String> command) {
+        if (niceness == 0 || Os.isFamily(Os.FAMILY_WINDOWS)) {
+            return command;
+        }
+        List<String> niced = new ArrayList<>(Arrays.asList("nice", "-n", String.valueOf(niceness)));
+        niced.addAll(command);
+        return niced;
+    }
+
+    /**
+     * Returns a description of the profile for the build log.
+     *
+     * @return the description, or an empty string if the profile changes nothing.
+     */
+    String describe() {
+        List<String> parts = new ArrayList<>();
+        for (Map.Entry<String, String> variable : environment.entrySet()) {
+            parts.add(variable.getKey() + "=" + variable.getValue());
+        }
+        if (niceness != 0) {
+            parts.add("nice " + niceness);
+        }
+        return String.join(", ", parts);
+    }
+
+    /**
+     * Gets the memory available to the build, or 0 if it is unknown.
+     */
+    private static long physicalMemory() {
+        return physicalMemory(Paths.get("/sys/fs/cgroup"), Paths.get("/proc/meminfo"));
+    }
+
+    /**
+     * Gets the memory available to the build, or 0 if it is unknown. In a container, that is the memory limit of its
+     * cgroup rather than the memory of the host, which is all {@code /proc/meminfo} knows about.
+     *
+     * @param cgroupRoot where the cgroup file system is mounted.
+     * @param meminfo    the memory statistics of the host.
+     * @return the memory in bytes.
+     */
+    static long physicalMemory(Path cgroupRoot, Path meminfo) {
+        long memory = hostMemory(meminfo);
+        // cgroup v2, then v1. A cgroup without a limit reports "max", or a huge number on v1
+        for (Path limitFile : new Path[] {cgroupRoot.resolve("memory.max"),
+                                          cgroupRoot.resolve("memory").resolve("memory.limit_in_bytes")}) {
+            long limit = readNumber(limitFile);
+            if (limit > 0) {
+                return memory > 0 ? Math.min(limit, memory) : limit;
+            }
+        }
+        return memory;
+    }
+
+    /**
+     * Gets the size of the physical memory, or 0 if it is unknown. It is read from {@code /proc/meminfo} where there
+     * is one, and otherwise from the JDK's own management interface, which is not part of the standard API.
+     */
+    private static long hostMemory(Path meminfo) {
+        if (Files.isReadable(meminfo)) {
+            try {
+                for (String line : Files.readAllLines(meminfo, StandardCharsets.UTF_8)) {
+                    if (line.startsWith("MemTotal:")) {
+                        // MemTotal:       16318412 kB
+                        return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Fall back to the management interface
+            }
+        }
+        // The management interface respects the limits of a container on JDK 10 and later
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        try {
+            Class<?> jdkInterface = Class.forName("com.sun.management.OperatingSystemMXBean");
+            if (jdkInterface.isInstance(os)) {
+                Method totalMemory = jdkInterface.getMethod("getTotalPhysicalMemorySize");
+                return (Long) totalMemory.invoke(os);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not available on this JVM
+        }
+        return 0;
+    }
+
+    /**
+     * Reads a file holding a single number, returning 0 if it is missing or holds anything else.
+     */
+    private static long readNumber(Path file) {
+        if (!Files.isReadable(file)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+}
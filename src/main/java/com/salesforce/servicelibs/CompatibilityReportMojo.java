@@ -0,0 +1,141 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Summarizes the backwards compatibility checks of every module in the build as HTML and JSON. The results kept by
+ * the backwards-compatibility-check goal are used, whether it ran earlier in the same build or in an earlier build,
+ * so nothing is checked again.
+ */
+@Mojo(name = "compatibility-report", aggregator = true, threadSafe = true)
+public class CompatibilityReportMojo extends AbstractMojo {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    /**
+     * The directory the report is written to, as compatibility-report.html and compatibility-report.json.
+     */
+    @Parameter(defaultValue = "${project.reporting.outputDirectory}")
+    private File reportDirectory;
+
+    @Parameter(defaultValue = "${reactorProjects}", readonly = true, required = true)
+    private List<MavenProject> reactorProjects;
+
+    /**
+     * Execute the plugin.
+     *
+     * @throws MojoExecutionException thrown when the results can not be read or the report can not be written.
+     */
+    public void execute() throws MojoExecutionException {
+        List<CheckResult> results = new ArrayList<>();
+        Map<CheckResult.Status, Integer> counts = new EnumMap<>(CheckResult.Status.class);
+        try {
+            for (MavenProject project : reactorProjects) {
+                CheckResult result = CheckResult.find(project);
+                if (result != null && result.getStatus() != null) {
+                    results.add(result);
+                    counts.merge(result.getStatus(), 1, Integer::sum);
+                }
+            }
+
+            Path htmlFile = reportDirectory.toPath().resolve("compatibility-report.html");
+            Files.createDirectories(htmlFile.getParent());
+            writeJson(reportDirectory.toPath().resolve("compatibility-report.json"), results, counts);
+            writeHtml(htmlFile, results, counts);
+            getLog().info("Backwards compatibility report for " + results.size() + " of " + reactorProjects.size()
+                + " modules written to " + htmlFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write the backwards compatibility report", e);
+        }
+    }
+
+    private static void writeJson(Path jsonFile, List<CheckResult> results, Map<CheckResult.Status, Integer> counts)
+        throws IOException {
+        JsonObject summary = new JsonObject();
+        for (Map.Entry<CheckResult.Status, Integer> count : counts.entrySet()) {
+            summary.addProperty(count.getKey().name(), count.getValue());
+        }
+        JsonArray modules = new JsonArray();
+        for (CheckResult result : results) {
+            modules.add(GSON.toJsonTree(result));
+        }
+        JsonObject report = new JsonObject();
+        report.add("summary", summary);
+        report.add("modules", modules);
+        try (Writer writer = Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8)) {
+            GSON.toJson(report, writer);
+        }
+    }
+
+    private static void writeHtml(Path htmlFile, List<CheckResult> results, Map<CheckResult.Status, Integer> counts)
+        throws IOException {
+        StringBuilder html = new StringBuilder();
+        html.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n")
+            .append("<title>Backwards Compatibility Report</title>\n</head>\n<body>\n")
+            .append("<h1>Backwards Compatibility Report</h1>\n<p>");
+        List<String> summary = new ArrayList<>();
+        for (Map.Entry<CheckResult.Status, Integer> count : counts.entrySet()) {
+            summary.add(count.getValue() + " " + count.getKey());
+        }
+        html.append(results.isEmpty() ? "No modules were checked." : escape(String.join(", ", summary)))
+            .append("</p>\n");
+
+        html.append("<table border=\"1\">\n<tr><th>Module</th><th>Status</th><th>Baseline</th><th>Started</th>")
+            .append("<th>Duration (ms)</th><th>Breaking changes</th></tr>\n");
+        for (CheckResult result : results) {
+            html.append("<tr><td>").append(escape(result.getModule()))
+                .append("</td><td>").append(result.getStatus())
+                .append("</td><td>").append(escape(result.getBaseline()))
+                .append("</td><td>").append(Instant.ofEpochMilli(result.getStartedAt()))
+                .append("</td><td>").append(result.getDurationMillis())
+                .append("</td><td>");
+            if (result.getMessage() != null) {
+                html.append(escape(result.getMessage()));
+            }
+            if (!result.getWarnings().isEmpty()) {
+                html.append("<ul>");
+                for (ProtolockWarning warning : result.getWarnings()) {
+                    html.append("<li>").append(escape(warning.getFilepath())).append(": ")
+                        .append(escape(warning.getMessage())).append("</li>");
+                }
+                html.append("</ul>");
+            }
+            html.append("</td></tr>\n");
+        }
+        html.append("</table>\n</body>\n</html>\n");
+        Files.write(htmlFile, html.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String escape(String text) {
+        if (text == null) {
+            return "";
+        }
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
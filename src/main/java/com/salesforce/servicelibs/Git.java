@@ -0,0 +1,190 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Runs the git command line against the local repository. Only plumbing commands are used, so the working tree and
+ * the index are never modified.
+ */
+final class Git {
+
+    private Git() {
+    }
+
+    /**
+     * Starts a git command. Its errors are forwarded to the build output.
+     *
+     * @param directory the directory to run git in.
+     * @param args      the git arguments.
+     * @return the git process.
+     * @throws IOException if git can not be started.
+     */
+    static Process start(File directory, String... args) throws IOException {
+        return new ProcessBuilder(command(args))
+            .directory(directory)
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    }
+
+    /**
+     * Runs a git command whose output is not needed, including the errors it reports for missing objects.
+     *
+     * @param directory the directory to run git in.
+     * @param args      the git arguments.
+     * @return true if git succeeded.
+     * @throws IOException          if git can not be run.
+     * @throws InterruptedException if interrupted while waiting for git.
+     */
+    static boolean succeeds(File directory, String... args) throws IOException, InterruptedException {
+        Process git = new ProcessBuilder(command(args))
+            .directory(directory)
+            .redirectErrorStream(true)
+            .start();
+        try (InputStream output = git.getInputStream()) {
+            byte[] buffer = new byte[1024];
+            while (output.read(buffer) >= 0) {
+                // Drain the output so that git can exit
+            }
+        }
+        return git.waitFor() == 0;
+    }
+
+    /**
+     * Runs a git command and returns its output.
+     *
+     * @param directory the directory to run git in.
+     * @param args      the git arguments.
+     * @return the output of git, without the trailing newline.
+     * @throws IOException          if git can not be run or fails.
+     * @throws InterruptedException if interrupted while waiting for git.
+     */
+    static String output(File directory, String... args) throws IOException, InterruptedException {
+        Process git = start(directory, args);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream in = git.getInputStream()) {
+            copy(in, output, Long.MAX_VALUE);
+        }
+        if (git.waitFor() != 0) {
+            throw new IOException("git " + String.join(" ", args) + " failed");
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Writes the files of a git tree to a directory. The tree is listed with {@code ls-tree} and all blobs are read
+     * through a single {@code cat-file --batch} process.
+     *
+     * @param directory the directory to run git in.
+     * @param tree      the object name of the tree to write.
+     * @param target    the directory to write the files to.
+     * @param keep      tests the path of each file, relative to the tree.
+     * @return the number of files written.
+     * @throws IOException          if git can not be run or a file can not be written.
+     * @throws InterruptedException if interrupted while waiting for git.
+     */
+    static int writeTree(File directory, String tree, Path target, Predicate<String> keep)
+        throws IOException, InterruptedException {
+        List<String> objects = new ArrayList<>();
+        List<String> paths = new ArrayList<>();
+        // Entries are "<mode> <type> <object>\t<path>", separated by NUL
+        for (String entry : output(directory, "ls-tree", "-r", "-z", "--full-tree", tree).split("\0")) {
+            int tab = entry.indexOf('\t');
+            String[] fields = tab < 0 ? new String[0] : entry.substring(0, tab).split(" ");
+            if (fields.length == 3 && "blob".equals(fields[1]) && !"120000".equals(fields[0])
+                && keep.test(entry.substring(tab + 1))) {
+                objects.add(fields[2]);
+                paths.add(entry.substring(tab + 1));
+            }
+        }
+        if (objects.isEmpty()) {
+            return 0;
+        }
+
+        Process git = start(directory, "cat-file", "--batch");
+        Thread requests = new Thread(() -> {
+            try (OutputStream out = git.getOutputStream()) {
+                for (String object : objects) {
+                    out.write((object + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                // git exited early, which is reported when reading its output
+            }
+        }, "git-cat-file");
+        requests.setDaemon(true);
+        requests.start();
+
+        try (InputStream in = new BufferedInputStream(git.getInputStream())) {
+            for (String path : paths) {
+                // Each blob is "<object> blob <size>\n<content>\n"
+                String[] header = readLine(in).split(" ");
+                if (header.length != 3 || !"blob".equals(header[1])) {
+                    throw new IOException("Unexpected git cat-file output for " + path);
+                }
+                Path file = target.resolve(path);
+                Files.createDirectories(file.getParent());
+                try (OutputStream out = Files.newOutputStream(file)) {
+                    copy(in, out, Long.parseLong(header[2]));
+                }
+                readLine(in);
+            }
+        } finally {
+            git.destroy();
+        }
+        requests.join();
+        return paths.size();
+    }
+
+    private static List<String> command(String... args) {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        Collections.addAll(command, args);
+        return command;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                throw new EOFException("Unexpected end of git output");
+            }
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void copy(InputStream in, OutputStream out, long length) throws IOException {
+        byte[] buffer = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                if (length == Long.MAX_VALUE) {
+                    return;
+                }
+                throw new EOFException("Unexpected end of git output");
+            }
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+
+/**
+ * Prefetches everything the backwards compatibility check needs to run: the protolock binary for the current OS
+ * and every configured protolock plugin. Existing files are verified against their checksums and replaced if they
+ * differ. What was resolved is recorded with its checksum, so that a later check performs no resolution of its own.
+ */
+@Mojo(name = "go-offline", threadSafe = true)
+public class GoOfflineMojo extends AbstractProtolockMojo {
+
+    /**
+     * Execute the plugin.
+     *
+     * @throws MojoExecutionException thrown when a binary can not be resolved or extracted.
+     * @throws MojoFailureException   thrown when a binary can not be resolved or extracted.
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final String classifier = detectClassifier();
+
+        try (Pipeline pipeline = new Pipeline("protolock-go-offline")) {
+            CompletableFuture<Path> protolock = pipeline.submit(() -> extractProtolock(classifier, true));
+            CompletableFuture<List<Path>> pluginExecutables =
+                resolvePlugins(pipeline, pluginSearchPath(), executableExtension(classifier), true);
+
+            getLog().info("Prefetched protolock binary: " + Pipeline.join(protolock));
+            for (Path pluginExecutable : Pipeline.join(pluginExecutables)) {
+                getLog().info("Prefetched protolock plugin: " + pluginExecutable);
+            }
+        }
+    }
+}
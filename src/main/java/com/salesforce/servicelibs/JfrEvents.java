@@ -0,0 +1,124 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The JFR event types recorded by {@link CheckEvents}. This class is only loaded on JVMs that support JFR.
+ */
+final class JfrEvents {
+
+    private static final String CATEGORY = "Proto Backwards Compatibility";
+
+    private JfrEvents() {
+    }
+
+    static CheckEvents.Phase extraction(String module, String classifier) {
+        ExtractionEvent event = new ExtractionEvent();
+        event.module = module;
+        event.classifier = classifier;
+        return new EventPhase(event);
+    }
+
+    static CheckEvents.Phase resolution(String module, String artifact) {
+        ResolutionEvent event = new ResolutionEvent();
+        event.module = module;
+        event.artifact = artifact;
+        return new EventPhase(event);
+    }
+
+    static CheckEvents.Phase protolock(String module, String command) {
+        ProtolockEvent event = new ProtolockEvent();
+        event.module = module;
+        event.command = command;
+        return new EventPhase(event);
+    }
+
+    @Name("com.salesforce.servicelibs.ProtolockExtraction")
+    @Label("Protolock Binary Extraction")
+    @Description("Installs the protolock binary into the build directory")
+    @Category({"Maven", CATEGORY})
+    static final class ExtractionEvent extends Event {
+        @Label("Module")
+        String module;
+
+        @Label("Classifier")
+        String classifier;
+    }
+
+    @Name("com.salesforce.servicelibs.ArtifactResolution")
+    @Label("Binary Artifact Resolution")
+    @Description("Resolves a protolock binary or protolock plugin artifact")
+    @Category({"Maven", CATEGORY})
+    static final class ResolutionEvent extends Event {
+        @Label("Module")
+        String module;
+
+        @Label("Artifact")
+        String artifact;
+    }
+
+    @Name("com.salesforce.servicelibs.ProtolockExecution")
+    @Label("Protolock Execution")
+    @Description("Runs a protolock command")
+    @Category({"Maven", CATEGORY})
+    static final class ProtolockEvent extends Event {
+        @Label("Module")
+        String module;
+
+        @Label("Command")
+        String command;
+
+        @Label("Proto Count")
+        int protoCount;
+
+        @Label("Exit Code")
+        int exitCode;
+    }
+
+    /**
+     * Adapts a JFR event to a check phase.
+     */
+    private static final class EventPhase implements CheckEvents.Phase {
+        private final Event event;
+
+        EventPhase(Event event) {
+            this.event = event;
+            event.begin();
+        }
+
+        @Override
+        public boolean isRecording() {
+            return event.isEnabled();
+        }
+
+        @Override
+        public void setProtoCount(int protoCount) {
+            if (event instanceof ProtolockEvent) {
+                ((ProtolockEvent) event).protoCount = protoCount;
+            }
+        }
+
+        @Override
+        public void setExitCode(int exitCode) {
+            if (event instanceof ProtolockEvent) {
+                ((ProtolockEvent) event).exitCode = exitCode;
+            }
+        }
+
+        @Override
+        public void close() {
+            event.commit();
+        }
+    }
+}
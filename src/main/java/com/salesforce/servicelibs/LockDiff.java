@@ -0,0 +1,342 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Computes the structural differences between two versions of a proto.lock file, reporting the messages, fields,
+ * enums and services that were added, removed or changed.
+ *
+ * <p>Both locks are read in a single pass, one definition at a time from each. A definition is only held in memory
+ * until the definition of the same proto file is read from the other lock, so when both locks list their files in
+ * the same order, as protolock does, memory use is bounded by the size of the change rather than of the locks.</p>
+ */
+final class LockDiff {
+
+    private static final List<String> KINDS =
+        Arrays.asList("package", "import", "message", "enum", "field", "value", "service", "rpc");
+    private static final List<String> CONTAINER_KINDS = Arrays.asList("message", "enum", "service");
+
+    private final Map<String, Map<String, String>> baseOnly = new HashMap<>();
+    private final Map<String, Map<String, String>> currentOnly = new HashMap<>();
+    private final List<FileDiff> files = new ArrayList<>();
+
+    /**
+     * Compares two locks.
+     *
+     * @param base    the earlier lock, or null if there was none.
+     * @param current the later lock, or null if there is none.
+     * @return the proto files that changed, sorted by path.
+     * @throws IOException if a lock can not be read.
+     */
+    static List<FileDiff> compare(JsonReader base, JsonReader current) throws IOException {
+        LockDiff diff = new LockDiff();
+        boolean baseHasNext = base != null && LockFiles.beginDefinitions(base);
+        boolean currentHasNext = current != null && LockFiles.beginDefinitions(current);
+        while (baseHasNext || currentHasNext) {
+            if (baseHasNext) {
+                diff.read(JsonParser.parseReader(base), diff.baseOnly, diff.currentOnly, true);
+                baseHasNext = base.hasNext();
+            }
+            if (currentHasNext) {
+                diff.read(JsonParser.parseReader(current), diff.currentOnly, diff.baseOnly, false);
+                currentHasNext = current.hasNext();
+            }
+        }
+
+        for (Map.Entry<String, Map<String, String>> removed : diff.baseOnly.entrySet()) {
+            diff.addFile(removed.getKey(), FileDiff.REMOVED, removed.getValue(), Collections.emptyMap());
+        }
+        for (Map.Entry<String, Map<String, String>> added : diff.currentOnly.entrySet()) {
+            diff.addFile(added.getKey(), FileDiff.ADDED, Collections.emptyMap(), added.getValue());
+        }
+        diff.files.sort((a, b) -> a.path.compareTo(b.path));
+        return diff.files;
+    }
+
+    private void read(JsonElement definition, Map<String, Map<String, String>> unmatched,
+                      Map<String, Map<String, String>> otherUnmatched, boolean isBase) {
+        if (!definition.isJsonObject()) {
+            return;
+        }
+        JsonObject object = definition.getAsJsonObject();
+        String path = object.has("protopath") ? LockFiles.toRelativePath(object.get("protopath").getAsString()) : "";
+        Map<String, String> entities = summarize(object.getAsJsonObject("def"));
+
+        Map<String, String> other = otherUnmatched.remove(path);
+        if (other == null) {
+            unmatched.put(path, entities);
+        } else if (isBase) {
+            addFile(path, FileDiff.MODIFIED, entities, other);
+        } else {
+            addFile(path, FileDiff.MODIFIED, other, entities);
+        }
+    }
+
+    private void addFile(String path, String status, Map<String, String> before, Map<String, String> after) {
+        List<Change> changes = new ArrayList<>();
+        TreeSet<String> keys = new TreeSet<>(before.keySet());
+        keys.addAll(after.keySet());
+        for (String key : keys) {
+            String beforeValue = before.get(key);
+            String afterValue = after.get(key);
+            if (beforeValue == null) {
+                changes.add(new Change(key, Change.ADDED, null, afterValue));
+            } else if (afterValue == null) {
+                changes.add(new Change(key, Change.REMOVED, beforeValue, null));
+            } else if (!beforeValue.equals(afterValue)) {
+                changes.add(new Change(key, Change.CHANGED, beforeValue, afterValue));
+            }
+        }
+        if (!changes.isEmpty()) {
+            files.add(new FileDiff(path, status, compact(changes)));
+        }
+    }
+
+    /**
+     * Orders changes so that each element is followed by its members, and leaves out the members of messages, enums
+     * and services that were added or removed as a whole.
+     */
+    private static List<Change> compact(List<Change> changes) {
+        Set<String> containers = new HashSet<>();
+        for (Change change : changes) {
+            if (CONTAINER_KINDS.contains(change.kind) && !Change.CHANGED.equals(change.change)) {
+                containers.add(change.change + " " + change.name);
+            }
+        }
+        List<Change> compacted = new ArrayList<>();
+        for (Change change : changes) {
+            int dot = change.name.lastIndexOf('.');
+            if (dot < 0 || !containers.contains(change.change + " " + change.name.substring(0, dot))) {
+                compacted.add(change);
+            }
+        }
+        compacted.sort(Comparator.comparing((Change change) -> change.name)
+            .thenComparing(change -> KINDS.indexOf(change.kind)));
+        return compacted;
+    }
+
+    /**
+     * Reduces a lock definition to its API elements, keyed by kind and qualified name, with a signature for each.
+     */
+    private static Map<String, String> summarize(JsonObject def) {
+        Map<String, String> entities = new TreeMap<>();
+        if (def == null) {
+            return entities;
+        }
+        if (def.has("package")) {
+            entities.put("package", string(def.getAsJsonObject("package"), "name"));
+        }
+        for (JsonObject dependency : objects(def, "imports")) {
+            entities.put("import " + string(dependency, "path"), "");
+        }
+        for (JsonObject message : objects(def, "messages")) {
+            summarizeMessage(message, "", entities);
+        }
+        for (JsonObject enumeration : objects(def, "enums")) {
+            summarizeEnum(enumeration, "", entities);
+        }
+        for (JsonObject service : objects(def, "services")) {
+            String name = string(service, "name");
+            entities.put("service " + name, "");
+            for (JsonObject rpc : objects(service, "rpcs")) {
+                entities.put("rpc " + name + "." + string(rpc, "name"),
+                    "(" + streamed(rpc, "in_streamed") + string(rpc, "in_type") + ") returns ("
+                        + streamed(rpc, "out_streamed") + string(rpc, "out_type") + ")");
+            }
+        }
+        return entities;
+    }
+
+    private static void summarizeMessage(JsonObject message, String prefix, Map<String, String> entities) {
+        String name = prefix + string(message, "name");
+        entities.put("message " + name, reserved(message));
+        for (JsonObject field : objects(message, "fields")) {
+            entities.put("field " + name + "." + string(field, "name"), fieldSignature(field, string(field, "type")));
+        }
+        for (JsonObject map : objects(message, "maps")) {
+            JsonObject field = map.getAsJsonObject("field");
+            if (field != null) {
+                entities.put("field " + name + "." + string(field, "name"), fieldSignature(field,
+                    "map<" + string(map, "key_type") + ", " + string(field, "type") + ">"));
+            }
+        }
+        for (JsonObject nested : objects(message, "messages")) {
+            summarizeMessage(nested, name + ".", entities);
+        }
+        for (JsonObject enumeration : objects(message, "enums")) {
+            summarizeEnum(enumeration, name + ".", entities);
+        }
+    }
+
+    private static void summarizeEnum(JsonObject enumeration, String prefix, Map<String, String> entities) {
+        String name = prefix + string(enumeration, "name");
+        entities.put("enum " + name, reserved(enumeration));
+        for (JsonObject value : objects(enumeration, "enum_fields")) {
+            entities.put("value " + name + "." + string(value, "name"), string(value, "integer"));
+        }
+    }
+
+    private static String fieldSignature(JsonObject field, String type) {
+        String label = isTrue(field, "is_repeated") ? "repeated " : isTrue(field, "optional") ? "optional " : "";
+        return label + type + " = " + string(field, "id");
+    }
+
+    private static String reserved(JsonObject object) {
+        List<String> reserved = new ArrayList<>();
+        for (String key : new String[] {"reserved_ids", "reserved_names"}) {
+            if (object.has(key) && object.get(key).isJsonArray()) {
+                for (JsonElement element : object.getAsJsonArray(key)) {
+                    reserved.add(element.getAsString());
+                }
+            }
+        }
+        return reserved.isEmpty() ? "" : "reserved " + String.join(", ", reserved);
+    }
+
+    private static String streamed(JsonObject rpc, String key) {
+        return isTrue(rpc, key) ? "stream " : "";
+    }
+
+    private static boolean isTrue(JsonObject object, String key) {
+        return object.has(key) && object.get(key).isJsonPrimitive() && object.get(key).getAsBoolean();
+    }
+
+    private static String string(JsonObject object, String key) {
+        return object != null && object.has(key) && !object.get(key).isJsonNull() ? object.get(key).getAsString() : "";
+    }
+
+    private static List<JsonObject> objects(JsonObject parent, String key) {
+        List<JsonObject> objects = new ArrayList<>();
+        if (parent.has(key) && parent.get(key).isJsonArray()) {
+            JsonArray array = parent.getAsJsonArray(key);
+            for (JsonElement element : array) {
+                if (element.isJsonObject()) {
+                    objects.add(element.getAsJsonObject());
+                }
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * The changes to one proto file.
+     */
+    static final class FileDiff {
+        static final String ADDED = "added";
+        static final String REMOVED = "removed";
+        static final String MODIFIED = "modified";
+
+        private final String path;
+        private final String status;
+        private final List<Change> changes;
+
+        FileDiff(String path, String status, List<Change> changes) {
+            this.path = path;
+            this.status = status;
+            this.changes = changes;
+        }
+
+        /**
+         * Gets the path of the proto file, relative to the proto source root.
+         */
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets whether the file was added, removed or modified.
+         */
+        String getStatus() {
+            return status;
+        }
+
+        /**
+         * Gets the changes to the API elements of the file, each element followed by the changes to its members.
+         */
+        List<Change> getChanges() {
+            return changes;
+        }
+    }
+
+    /**
+     * A change to one API element: a package, import, message, field, enum, enum value, service or rpc.
+     */
+    static final class Change {
+        static final String ADDED = "added";
+        static final String REMOVED = "removed";
+        static final String CHANGED = "changed";
+
+        private final String kind;
+        private final String name;
+        private final String change;
+        private final String before;
+        private final String after;
+
+        Change(String key, String change, String before, String after) {
+            int space = key.indexOf(' ');
+            this.kind = space < 0 ? key : key.substring(0, space);
+            this.name = space < 0 ? "" : key.substring(space + 1);
+            this.change = change;
+            this.before = before;
+            this.after = after;
+        }
+
+        /**
+         * Gets the kind of element, such as {@code message} or {@code field}.
+         */
+        String getKind() {
+            return kind;
+        }
+
+        /**
+         * Gets the qualified name of the element within its file.
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * Gets whether the element was added, removed or changed.
+         */
+        String getChange() {
+            return change;
+        }
+
+        /**
+         * Gets the signature of the element before the change, or null if it was added.
+         */
+        String getBefore() {
+            return before;
+        }
+
+        /**
+         * Gets the signature of the element after the change, or null if it was removed.
+         */
+        String getAfter() {
+            return after;
+        }
+    }
+}
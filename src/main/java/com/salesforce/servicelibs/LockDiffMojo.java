@@ -0,0 +1,244 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Summarizes the API changes between the working copy of proto.lock and the version committed at a git ref, as
+ * Markdown and JSON reports suitable for pull request descriptions. The locks are compared structurally, so the
+ * reports list added, removed and changed messages, fields, enums and services rather than text differences.
+ */
+@Mojo(name = "lock-diff", threadSafe = true)
+public class LockDiffMojo extends AbstractMojo {
+
+    /**
+     * The directory where .proto source files can be found.
+     */
+    @Parameter(defaultValue = "${basedir}/src/main/proto")
+    private String protoSourceRoot;
+
+    /**
+     * The directory where proto.lock is kept
+     */
+    @Parameter
+    private String lockDir;
+
+    /**
+     * The git ref to compare the working copy of proto.lock against.
+     */
+    @Parameter(property = "diffRef", defaultValue = "HEAD")
+    private String diffRef;
+
+    /**
+     * The directory where lock-diff.md and lock-diff.json are written.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/protolock-reports")
+    private File outputDirectory;
+
+    /**
+     * Execute the plugin.
+     *
+     * @throws MojoExecutionException thrown when the locks can not be read or the reports can not be written.
+     */
+    public void execute() throws MojoExecutionException {
+        if (lockDir == null) {
+            lockDir = protoSourceRoot;
+        }
+        File lockDirectory = new File(lockDir);
+        if (!lockDirectory.isDirectory()) {
+            getLog().info("No proto.lock found in " + lockDir);
+            return;
+        }
+
+        final List<LockDiff.FileDiff> files;
+        String baseLockName = committedLockName(lockDirectory);
+        Process git = null;
+        try (JsonReader current = openWorkingLock(lockDirectory.toPath())) {
+            JsonReader base = null;
+            if (baseLockName != null) {
+                git = Git.start(lockDirectory, "cat-file", "blob", diffRef + ":./" + baseLockName);
+                base = openLock(git.getInputStream(), baseLockName);
+            }
+            try {
+                files = LockDiff.compare(base, current);
+            } finally {
+                if (base != null) {
+                    base.close();
+                }
+            }
+            if (git != null && git.waitFor() != 0) {
+                throw new MojoExecutionException("Unable to read " + baseLockName + " at " + diffRef);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to compare proto.lock with " + diffRef, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while reading proto.lock at " + diffRef, e);
+        } finally {
+            if (git != null) {
+                git.destroy();
+            }
+        }
+
+        Path markdownFile = outputDirectory.toPath().resolve("lock-diff.md");
+        Path jsonFile = outputDirectory.toPath().resolve("lock-diff.json");
+        try {
+            Files.createDirectories(outputDirectory.toPath());
+            Files.write(markdownFile, markdown(files), StandardCharsets.UTF_8);
+            writeJson(jsonFile, files);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write the lock diff reports", e);
+        }
+
+        getLog().info(summary(files));
+        for (LockDiff.FileDiff file : files) {
+            getLog().info("  " + file.getPath() + " (" + file.getStatus() + ", " + file.getChanges().size()
+                + " changes)");
+        }
+        getLog().info("Lock diff written to " + markdownFile + " and " + jsonFile);
+    }
+
+    /**
+     * Finds the name of the lock committed at the ref, preferring a compressed lock.
+     *
+     * @return the file name, or null if there is no lock at the ref.
+     */
+    private String committedLockName(File lockDirectory) throws MojoExecutionException {
+        for (String name : new String[] {LockFiles.COMPRESSED_LOCK_FILE_NAME, LockFiles.LOCK_FILE_NAME}) {
+            try {
+                if (Git.succeeds(lockDirectory, "cat-file", "-e", diffRef + ":./" + name)) {
+                    return name;
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to run git", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while running git", e);
+            }
+        }
+        getLog().info("No proto.lock found at " + diffRef + ", all proto files are reported as added");
+        return null;
+    }
+
+    private static JsonReader openWorkingLock(Path lockDirectory) throws IOException {
+        for (String name : new String[] {LockFiles.COMPRESSED_LOCK_FILE_NAME, LockFiles.LOCK_FILE_NAME}) {
+            Path lockFile = lockDirectory.resolve(name);
+            if (Files.exists(lockFile)) {
+                return openLock(Files.newInputStream(lockFile), name);
+            }
+        }
+        return null;
+    }
+
+    private static JsonReader openLock(InputStream in, String name) throws IOException {
+        InputStream buffered = new BufferedInputStream(in);
+        InputStream lock = name.endsWith(".gz") ? new GZIPInputStream(buffered) : buffered;
+        return new JsonReader(new InputStreamReader(lock, StandardCharsets.UTF_8));
+    }
+
+    private String summary(List<LockDiff.FileDiff> files) {
+        if (files.isEmpty()) {
+            return "No API changes since " + diffRef + ".";
+        }
+        int added = 0;
+        int removed = 0;
+        for (LockDiff.FileDiff file : files) {
+            if (LockDiff.FileDiff.ADDED.equals(file.getStatus())) {
+                added++;
+            } else if (LockDiff.FileDiff.REMOVED.equals(file.getStatus())) {
+                removed++;
+            }
+        }
+        return files.size() + " proto files changed since " + diffRef + ": " + added + " added, " + removed
+            + " removed, " + (files.size() - added - removed) + " modified.";
+    }
+
+    private List<String> markdown(List<LockDiff.FileDiff> files) {
+        List<String> lines = new ArrayList<>();
+        lines.add("### API changes since `" + diffRef + "`");
+        lines.add("");
+        lines.add(summary(files));
+        for (LockDiff.FileDiff file : files) {
+            lines.add("");
+            lines.add("#### `" + file.getPath() + "` (" + file.getStatus() + ")");
+            lines.add("");
+            for (LockDiff.Change change : file.getChanges()) {
+                lines.add(markdown(change));
+            }
+        }
+        return lines;
+    }
+
+    private static String markdown(LockDiff.Change change) {
+        String element = change.getKind() + (change.getName().isEmpty() ? "" : " `" + change.getName() + "`");
+        switch (change.getChange()) {
+            case LockDiff.Change.ADDED:
+                return "- Added " + element + signature(change.getAfter());
+            case LockDiff.Change.REMOVED:
+                return "- Removed " + element + signature(change.getBefore());
+            default:
+                return "- Changed " + element + ": `" + change.getBefore() + "` -> `" + change.getAfter() + "`";
+        }
+    }
+
+    private static String signature(String signature) {
+        return signature == null || signature.isEmpty() ? "" : ": `" + signature + "`";
+    }
+
+    private void writeJson(Path jsonFile, List<LockDiff.FileDiff> files) throws IOException {
+        try (Writer out = Files.newBufferedWriter(jsonFile, StandardCharsets.UTF_8)) {
+            JsonWriter writer = new JsonWriter(out);
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("ref").value(diffRef);
+            writer.name("files").beginArray();
+            for (LockDiff.FileDiff file : files) {
+                writer.beginObject();
+                writer.name("path").value(file.getPath());
+                writer.name("status").value(file.getStatus());
+                writer.name("changes").beginArray();
+                for (LockDiff.Change change : file.getChanges()) {
+                    writer.beginObject();
+                    writer.name("kind").value(change.getKind());
+                    writer.name("name").value(change.getName());
+                    writer.name("change").value(change.getChange());
+                    if (change.getBefore() != null) {
+                        writer.name("before").value(change.getBefore());
+                    }
+                    if (change.getAfter() != null) {
+                        writer.name("after").value(change.getAfter());
+                    }
+                    writer.endObject();
+                }
+                writer.endArray();
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Coordinates checks that share a lock directory, so that they never run protolock on the same proto.lock at once.
+ * Within a JVM, a check with the same configuration as one already running waits for it and reuses its result
+ * instead of repeating it. Checks with different configurations, and checks in other JVMs, take turns: each holds a
+ * lock on the lock directory, and a file lock in the temporary directory, while it runs.
+ */
+final class LockDirCoordinator {
+
+    private static final Map<String, CompletableFuture<CheckResult>> RUNNING = new HashMap<>();
+    private static final Map<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private LockDirCoordinator() {
+    }
+
+    /**
+     * A check of a lock directory.
+     */
+    interface Check {
+        /**
+         * Runs the check, recording its outcome in the result given to {@link #coordinate}.
+         *
+         * @throws MojoExecutionException if the check can not be run.
+         * @throws MojoFailureException   if the check fails.
+         */
+        void run() throws MojoExecutionException, MojoFailureException;
+    }
+
+    /**
+     * Runs a check of a lock directory, or waits for an identical check that is already running.
+     *
+     * @param lockDir       the canonical lock directory.
+     * @param configuration everything else that the outcome of the check depends on.
+     * @param result        the result the check records its outcome in.
+     * @param log           the log to report waiting to.
+     * @param check         the check.
+     * @return the result of the identical check that was waited for, or null if the check was run.
+     * @throws MojoExecutionException if the check can not be run, or waiting was interrupted.
+     * @throws MojoFailureException   if the check fails.
+     */
+    static CheckResult coordinate(Path lockDir, String configuration, CheckResult result, Log log, Check check)
+        throws MojoExecutionException, MojoFailureException {
+        String key = lockDir + "\n" + configuration;
+        CompletableFuture<CheckResult> running;
+        CompletableFuture<CheckResult> own = new CompletableFuture<>();
+        synchronized (RUNNING) {
+            running = RUNNING.putIfAbsent(key, own);
+        }
+        if (running != null) {
+            log.info("Waiting for the identical check of " + lockDir + " that is already running");
+            try {
+                CheckResult reused = running.get();
+                if (reused != null) {
+                    return reused;
+                }
+                // The other check could not be run, so this one tries for itself
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while waiting for the check of " + lockDir, e);
+            } catch (ExecutionException e) {
+                throw new MojoExecutionException("Unable to wait for the check of " + lockDir, e);
+            }
+            runExclusively(lockDir, log, check);
+            return null;
+        }
+
+        try {
+            runExclusively(lockDir, log, check);
+        } finally {
+            synchronized (RUNNING) {
+                RUNNING.remove(key);
+            }
+            boolean reusable = result.getStatus() != null && result.getStatus() != CheckResult.Status.ERROR;
+            own.complete(reusable ? result : null);
+        }
+        return null;
+    }
+
+    private static void runExclusively(Path lockDir, Log log, Check check)
+        throws MojoExecutionException, MojoFailureException {
+        ReentrantLock lock = LOCKS.computeIfAbsent(lockDir, dir -> new ReentrantLock(true));
+        if (!lock.tryLock()) {
+            log.info("Waiting for another check of " + lockDir + " in this build");
+            try {
+                lock.lockInterruptibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while waiting for the check of " + lockDir, e);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(lockFile(lockDir),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock fileLock = channel.tryLock();
+            if (fileLock == null) {
+                log.info("Waiting for another build checking " + lockDir);
+                fileLock = channel.lock();
+            }
+            try {
+                check.run();
+            } finally {
+                fileLock.release();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to lock " + lockDir, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the file that is locked while a lock directory is checked. It is kept in the temporary directory rather
+     * than next to proto.lock, so that the source tree is left alone.
+     */
+    private static Path lockFile(Path lockDir) {
+        return Paths.get(System.getProperty("java.io.tmpdir"),
+            "protolock-" + Checksums.sha256(lockDir.toString()).substring(0, 16) + ".lock");
+    }
+}
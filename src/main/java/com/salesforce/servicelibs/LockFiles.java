@@ -0,0 +1,334 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Helpers for reading and rewriting proto.lock files. Lock files can be large, so definitions are streamed one at a
+ * time rather than loading the whole lock into memory.
+ */
+final class LockFiles {
+
+    /**
+     * The name of the lock file protolock reads and writes.
+     */
+    static final String LOCK_FILE_NAME = "proto.lock";
+
+    /**
+     * The name of a compressed lock file.
+     */
+    static final String COMPRESSED_LOCK_FILE_NAME = "proto.lock.gz";
+
+    /**
+     * The name of a lock fragment holding the definitions of excluded proto files.
+     */
+    static final String EXCLUDED_LOCK_FILE_NAME = "excluded.lock";
+
+    private static final String PROTOPATH_SEPARATOR = ":/:";
+
+    private static final TypeAdapter<JsonElement> JSON_ELEMENT = new Gson().getAdapter(JsonElement.class);
+
+    private LockFiles() {
+    }
+
+    /**
+     * Converts a protolock {@code protopath}, which uses {@code :/:} as a separator, to a relative path using
+     * {@code /} as a separator.
+     *
+     * @param protopath the protopath.
+     * @return the relative path.
+     */
+    static String toRelativePath(String protopath) {
+        return protopath.replace(PROTOPATH_SEPARATOR, "/");
+    }
+
+    /**
+     * Copies a lock file, keeping only the definitions of proto files that match a filter.
+     *
+     * @param source the lock file to read.
+     * @param target the lock file to write. May be the same file as the source.
+     * @param keep   tests the relative path of each proto file.
+     * @return the number of definitions that were dropped.
+     * @throws IOException if the lock file can not be read or written.
+     */
+    static int filter(Path source, Path target, Predicate<String> keep) throws IOException {
+        Path tempFile = Files.createTempFile(target.toAbsolutePath().getParent(), LOCK_FILE_NAME, ".tmp");
+        int dropped = 0;
+        try {
+            try (Reader in = Files.newBufferedReader(source, StandardCharsets.UTF_8);
+                 Writer out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                JsonReader reader = new JsonReader(in);
+                JsonWriter writer = new JsonWriter(out);
+                writer.setIndent("  ");
+
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    writer.name(name);
+                    if (!"definitions".equals(name) || reader.peek() != JsonToken.BEGIN_ARRAY) {
+                        JSON_ELEMENT.write(writer, JsonParser.parseReader(reader));
+                        continue;
+                    }
+                    reader.beginArray();
+                    writer.beginArray();
+                    while (reader.hasNext()) {
+                        JsonElement definition = JsonParser.parseReader(reader);
+                        if (keep.test(toRelativePath(protopath(definition)))) {
+                            JSON_ELEMENT.write(writer, definition);
+                        } else {
+                            dropped++;
+                        }
+                    }
+                    reader.endArray();
+                    writer.endArray();
+                }
+                reader.endObject();
+                writer.endObject();
+                out.write('\n');
+            }
+            if (dropped == 0 && source.equals(target)) {
+                return 0;
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            return dropped;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Writes a lock file in its compressed form: gzipped, compact JSON with the keys of every object sorted. The
+     * output only depends on the lock data, so an unchanged lock always compresses to the same bytes, and the target
+     * is left untouched when its content would not change.
+     *
+     * @param source the lock file to read.
+     * @param target the compressed lock file to write.
+     * @throws IOException if a lock file can not be read or written.
+     */
+    static void compress(Path source, Path target) throws IOException {
+        Path tempFile = Files.createTempFile(target.toAbsolutePath().getParent(), COMPRESSED_LOCK_FILE_NAME, ".tmp");
+        try {
+            try (Reader in = Files.newBufferedReader(source, StandardCharsets.UTF_8);
+                 OutputStream gzip = new GZIPOutputStream(Files.newOutputStream(tempFile));
+                 Writer out = new OutputStreamWriter(gzip, StandardCharsets.UTF_8)) {
+                JsonReader reader = new JsonReader(in);
+                JsonWriter writer = new JsonWriter(out);
+
+                // Definitions are streamed one at a time, in the order protolock wrote them
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+                        JSON_ELEMENT.write(writer, canonicalize(JsonParser.parseReader(reader)));
+                        continue;
+                    }
+                    reader.beginArray();
+                    writer.beginArray();
+                    while (reader.hasNext()) {
+                        JSON_ELEMENT.write(writer, canonicalize(JsonParser.parseReader(reader)));
+                    }
+                    reader.endArray();
+                    writer.endArray();
+                }
+                reader.endObject();
+                writer.endObject();
+                writer.flush();
+            }
+            if (Files.exists(target) && Checksums.sha256(target).equals(Checksums.sha256(tempFile))) {
+                return;
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Expands a compressed lock file into a lock file protolock can read.
+     *
+     * @param source the compressed lock file to read.
+     * @param target the lock file to write.
+     * @throws IOException if a lock file can not be read or written.
+     */
+    static void decompress(Path source, Path target) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(source))) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Merges lock fragments that each hold the definitions of different proto files into one lock. Definitions are
+     * streamed from all fragments at once and written in protolock's order, by path. The target is left untouched
+     * when its content would not change.
+     *
+     * @param fragments the lock files to merge.
+     * @param target    the lock file to write.
+     * @return the number of definitions written.
+     * @throws IOException if a lock file can not be read or written.
+     */
+    static int merge(List<Path> fragments, Path target) throws IOException {
+        Path tempFile = Files.createTempFile(target.toAbsolutePath().getParent(), LOCK_FILE_NAME, ".tmp");
+        List<JsonReader> readers = new ArrayList<>();
+        int written = 0;
+        try {
+            PriorityQueue<PendingDefinition> pending = new PriorityQueue<>();
+            for (Path fragment : fragments) {
+                JsonReader reader = new JsonReader(Files.newBufferedReader(fragment, StandardCharsets.UTF_8));
+                readers.add(reader);
+                if (beginDefinitions(reader)) {
+                    pending.add(new PendingDefinition(JsonParser.parseReader(reader), reader));
+                }
+            }
+
+            try (Writer out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                JsonWriter writer = new JsonWriter(out);
+                writer.setIndent("  ");
+                writer.beginObject();
+                writer.name("definitions");
+                writer.beginArray();
+                while (!pending.isEmpty()) {
+                    PendingDefinition next = pending.poll();
+                    JSON_ELEMENT.write(writer, next.definition);
+                    written++;
+                    if (next.reader.hasNext()) {
+                        pending.add(new PendingDefinition(JsonParser.parseReader(next.reader), next.reader));
+                    }
+                }
+                writer.endArray();
+                writer.endObject();
+                out.write('\n');
+            }
+            if (!Files.exists(target) || !Checksums.sha256(target).equals(Checksums.sha256(tempFile))) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return written;
+        } finally {
+            for (JsonReader reader : readers) {
+                reader.close();
+            }
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Positions a reader on the first definition of a lock.
+     *
+     * @param reader a reader at the start of a lock.
+     * @return true if the lock has any definitions.
+     * @throws IOException if the lock can not be read.
+     */
+    static boolean beginDefinitions(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.END_DOCUMENT) {
+            return false;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("definitions".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                return reader.hasNext();
+            }
+            reader.skipValue();
+        }
+        return false;
+    }
+
+    /**
+     * Orders protopaths the way protolock walks a proto tree: directory by directory, with the entries of each
+     * directory sorted by name.
+     */
+    static int compareProtopaths(String a, String b) {
+        String[] aSegments = a.split(PROTOPATH_SEPARATOR, -1);
+        String[] bSegments = b.split(PROTOPATH_SEPARATOR, -1);
+        for (int i = 0; i < Math.min(aSegments.length, bSegments.length); i++) {
+            int compared = aSegments[i].compareTo(bSegments[i]);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return Integer.compare(aSegments.length, bSegments.length);
+    }
+
+    private static JsonElement canonicalize(JsonElement element) {
+        if (element.isJsonObject()) {
+            List<Map.Entry<String, JsonElement>> members = new ArrayList<>(element.getAsJsonObject().entrySet());
+            Collections.sort(members, Map.Entry.comparingByKey());
+            JsonObject sorted = new JsonObject();
+            for (Map.Entry<String, JsonElement> member : members) {
+                sorted.add(member.getKey(), canonicalize(member.getValue()));
+            }
+            return sorted;
+        }
+        if (element.isJsonArray()) {
+            JsonArray array = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                array.add(canonicalize(item));
+            }
+            return array;
+        }
+        return element;
+    }
+
+    private static String protopath(JsonElement definition) {
+        if (definition.isJsonObject()) {
+            JsonObject object = definition.getAsJsonObject();
+            if (object.has("protopath")) {
+                return object.get("protopath").getAsString();
+            }
+        }
+        return "";
+    }
+
+    /**
+     * A definition read from a lock fragment, waiting to be merged.
+     */
+    private static final class PendingDefinition implements Comparable<PendingDefinition> {
+        private final JsonElement definition;
+        private final String protopath;
+        private final JsonReader reader;
+
+        PendingDefinition(JsonElement definition, JsonReader reader) {
+            this.definition = definition;
+            this.protopath = protopath(definition);
+            this.reader = reader;
+        }
+
+        @Override
+        public int compareTo(PendingDefinition other) {
+            return compareProtopaths(protopath, other.protopath);
+        }
+    }
+}
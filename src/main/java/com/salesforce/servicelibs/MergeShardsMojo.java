@@ -0,0 +1,163 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Combines the results of a backwards compatibility check that was split into shards with shardIndex and
+ * shardCount. The check fails if any shard failed. Otherwise the lock fragments of all shards, and the definitions of
+ * excluded proto files, are merged into proto.lock.
+ */
+@Mojo(name = "merge-shards", threadSafe = true)
+public class MergeShardsMojo extends AbstractMojo {
+
+    /**
+     * The directory where .proto source files can be found.
+     */
+    @Parameter(defaultValue = "${basedir}/src/main/proto")
+    private String protoSourceRoot;
+
+    /**
+     * The directory where proto.lock is kept
+     */
+    @Parameter
+    private String lockDir;
+
+    /**
+     * The format proto.lock is stored in: {@code plain} or {@code gzip}.
+     */
+    @Parameter(property = "lockFormat", defaultValue = BackwardsCompatibilityCheckMojo.LOCK_FORMAT_PLAIN)
+    private String lockFormat;
+
+    /**
+     * The directory where the shards wrote their reports and lock fragments.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/protolock-shards")
+    private File shardDirectory;
+
+    /**
+     * Execute the plugin.
+     *
+     * @throws MojoExecutionException thrown when the shard results can not be read or proto.lock can not be written.
+     * @throws MojoFailureException   thrown when a shard is missing or failed the check.
+     */
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (lockDir == null) {
+            lockDir = protoSourceRoot;
+        }
+        boolean compressed = BackwardsCompatibilityCheckMojo.LOCK_FORMAT_GZIP.equals(lockFormat);
+        if (!compressed && !BackwardsCompatibilityCheckMojo.LOCK_FORMAT_PLAIN.equals(lockFormat)) {
+            throw new MojoFailureException("Unsupported lockFormat " + lockFormat + ". Use "
+                + BackwardsCompatibilityCheckMojo.LOCK_FORMAT_PLAIN + " or "
+                + BackwardsCompatibilityCheckMojo.LOCK_FORMAT_GZIP);
+        }
+
+        try {
+            List<ProtoShards.ShardReport> reports = readReports();
+            List<Integer> failed = new ArrayList<>();
+            boolean breakingChangesAccepted = false;
+            int protoFiles = 0;
+            for (ProtoShards.ShardReport report : reports) {
+                protoFiles += report.getProtoFiles();
+                breakingChangesAccepted |= report.isBreakingChangesAccepted();
+                if (!report.isPassed()) {
+                    failed.add(report.getShardIndex());
+                    for (ProtolockWarning warning : report.getWarnings()) {
+                        getLog().info(warning.toString());
+                    }
+                }
+            }
+            if (!failed.isEmpty()) {
+                throw new MojoFailureException("Backwards compatibility check failed in shards " + failed
+                    + "! You can override this by specifying allowBreakingChanges=true");
+            }
+
+            List<Path> fragments = new ArrayList<>();
+            for (ProtoShards.ShardReport report : reports) {
+                fragments.add(shardDirectory.toPath().resolve("shard-" + report.getShardIndex())
+                    .resolve(LockFiles.LOCK_FILE_NAME));
+            }
+            // The definitions of excluded proto files, which no shard checks, are kept as they are
+            Path excludedFragment =
+                shardDirectory.toPath().resolve("shard-0").resolve(LockFiles.EXCLUDED_LOCK_FILE_NAME);
+            if (Files.exists(excludedFragment)) {
+                fragments.add(excludedFragment);
+            }
+            Files.createDirectories(Paths.get(lockDir));
+            Path lockFile = Paths.get(lockDir, LockFiles.LOCK_FILE_NAME);
+            int definitions;
+            if (compressed) {
+                Path mergedLock = shardDirectory.toPath().resolve(LockFiles.LOCK_FILE_NAME);
+                definitions = LockFiles.merge(fragments, mergedLock);
+                LockFiles.compress(mergedLock, Paths.get(lockDir, LockFiles.COMPRESSED_LOCK_FILE_NAME));
+                Files.deleteIfExists(lockFile);
+            } else {
+                definitions = LockFiles.merge(fragments, lockFile);
+            }
+
+            if (breakingChangesAccepted) {
+                getLog().warn("Breaking changes accepted");
+            }
+            getLog().info("Merged " + reports.size() + " shards (" + protoFiles + " proto files, " + definitions
+                + " lock definitions) into " + lockDir);
+            getLog().info("Backwards compatibility check passed.");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to merge the shards in " + shardDirectory, e);
+        }
+    }
+
+    /**
+     * Reads the report of every shard, making sure that all shards of the same split are present.
+     */
+    private List<ProtoShards.ShardReport> readReports() throws IOException, MojoFailureException {
+        TreeMap<Integer, ProtoShards.ShardReport> reports = new TreeMap<>();
+        int shardCount = -1;
+        if (Files.isDirectory(shardDirectory.toPath())) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(shardDirectory.toPath(), "shard-*.json")) {
+                for (Path file : files) {
+                    ProtoShards.ShardReport report = ProtoShards.readReport(file);
+                    if (shardCount >= 0 && report.getShardCount() != shardCount) {
+                        throw new MojoFailureException("Shard reports in " + shardDirectory
+                            + " come from checks split into different numbers of shards");
+                    }
+                    shardCount = report.getShardCount();
+                    reports.put(report.getShardIndex(), report);
+                }
+            }
+        }
+        if (reports.isEmpty()) {
+            throw new MojoFailureException("No shard reports found in " + shardDirectory);
+        }
+
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            if (!reports.containsKey(i)) {
+                missing.add(i);
+            }
+        }
+        if (!missing.isEmpty()) {
+            throw new MojoFailureException("Missing reports for shards " + missing + " of " + shardCount
+                + " in " + shardDirectory);
+        }
+        return new ArrayList<>(reports.values());
+    }
+}
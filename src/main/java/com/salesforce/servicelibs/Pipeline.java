@@ -0,0 +1,132 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Runs independent steps of a goal concurrently. Steps are submitted as soon as their inputs are known, and joined
+ * where their results are needed, so that slow I/O such as extracting binaries, resolving artifacts and scanning
+ * proto trees overlaps.
+ */
+final class Pipeline implements AutoCloseable {
+
+    private static final int MAX_THREADS = 4;
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates a pipeline.
+     *
+     * @param name the name prefix of the pipeline's threads.
+     */
+    Pipeline(String name) {
+        this(name, Math.min(MAX_THREADS, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Creates a pipeline that runs up to a given number of steps at once.
+     *
+     * @param name    the name prefix of the pipeline's threads.
+     * @param threads the maximum number of steps to run at once.
+     */
+    Pipeline(String name, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a step.
+     *
+     * @param step the step.
+     * @param <T>  the type of the step's result.
+     * @return the step's eventual result.
+     */
+    <T> CompletableFuture<T> submit(Step<T> step) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return step.run();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Waits for the result of a step, rethrowing the exception the step failed with.
+     *
+     * @param future the step's eventual result.
+     * @param <T>    the type of the step's result.
+     * @return the step's result.
+     * @throws MojoExecutionException if the step failed with an execution error or any other checked exception.
+     * @throws MojoFailureException   if the step failed with a failure.
+     */
+    static <T> T join(CompletableFuture<T> future) throws MojoExecutionException, MojoFailureException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for a concurrent step", e);
+        } catch (CancellationException e) {
+            throw new MojoExecutionException("Cancelled", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof MojoExecutionException) {
+                throw (MojoExecutionException) cause;
+            }
+            if (cause instanceof MojoFailureException) {
+                throw (MojoFailureException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new MojoExecutionException("An error occurred while running protolock", cause);
+        }
+    }
+
+    /**
+     * Stops the pipeline's threads. Steps that are still running are interrupted.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A step of a pipeline.
+     *
+     * @param <T> the type of the step's result.
+     */
+    interface Step<T> {
+        /**
+         * Runs the step.
+         *
+         * @return the result.
+         * @throws Exception if the step fails.
+         */
+        T run() throws Exception;
+    }
+}
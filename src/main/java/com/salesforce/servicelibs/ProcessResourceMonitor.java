@@ -0,0 +1,140 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a child process. Wall time is always measured. On Linux, CPU time and peak resident memory
+ * are sampled from {@code /proc} while the process runs, so the figures for a very short-lived process are a lower
+ * bound.
+ */
+final class ProcessResourceMonitor {
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 20;
+
+    // USER_HZ, the unit of the CPU times in /proc/[pid]/stat, is 100 on every mainstream Linux architecture
+    private static final long CLOCK_TICK_MILLIS = 10;
+
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "protolock-resource-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final String command;
+    private final long startNanos;
+    private final Path procDir;
+    private final ScheduledFuture<?> sampling;
+
+    private volatile long userTicks = -1;
+    private volatile long systemTicks = -1;
+    private volatile long peakRssKb = -1;
+
+    private ProcessResourceMonitor(String name, String command, Path procDir) {
+        this.name = name;
+        this.command = command;
+        this.startNanos = System.nanoTime();
+        this.procDir = procDir;
+        this.sampling = procDir == null ? null
+            : SAMPLER.scheduleAtFixedRate(this::sample, 0, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts measuring a process that has just been started.
+     *
+     * @param name    a short name for the invocation, such as the protolock command or plugin name.
+     * @param command the command line of the process.
+     * @param process the process.
+     * @return the monitor.
+     */
+    static ProcessResourceMonitor start(String name, String command, Process process) {
+        long pid = pid(process);
+        Path procDir = pid > 0 ? Paths.get("/proc", Long.toString(pid)) : null;
+        if (procDir != null && !Files.isDirectory(procDir)) {
+            procDir = null;
+        }
+        return new ProcessResourceMonitor(name, command, procDir);
+    }
+
+    /**
+     * Takes a last sample of a process that is about to exit, such as one that has closed its output. It must be
+     * taken before waiting for the process, since {@code /proc} no longer has the process once it has been reaped.
+     */
+    void sampleBeforeExit() {
+        if (sampling != null) {
+            sample();
+        }
+    }
+
+    /**
+     * Stops measuring. It must be called however the process ended, since sampling otherwise continues for as long as
+     * the JVM runs.
+     *
+     * @return the resources used by the process.
+     */
+    ProcessResourceUsage stop() {
+        long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        if (sampling != null) {
+            sampling.cancel(false);
+        }
+        return new ProcessResourceUsage(name, command, wallMillis,
+            userTicks < 0 ? -1 : userTicks * CLOCK_TICK_MILLIS,
+            systemTicks < 0 ? -1 : systemTicks * CLOCK_TICK_MILLIS,
+            peakRssKb);
+    }
+
+    /**
+     * Determines whether the process is still being sampled.
+     */
+    boolean isSampling() {
+        return sampling != null && !sampling.isDone();
+    }
+
+    private synchronized void sample() {
+        try {
+            String stat = new String(Files.readAllBytes(procDir.resolve("stat")), StandardCharsets.US_ASCII);
+            // The command name can contain spaces, so fields are counted from the end of it. utime and stime are
+            // fields 14 and 15, the first field after the name being field 3.
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            userTicks = Math.max(userTicks, Long.parseLong(fields[11]));
+            systemTicks = Math.max(systemTicks, Long.parseLong(fields[12]));
+
+            for (String line : Files.readAllLines(procDir.resolve("status"), StandardCharsets.US_ASCII)) {
+                if (line.startsWith("VmHWM:")) {
+                    String value = line.substring("VmHWM:".length()).trim();
+                    peakRssKb = Math.max(peakRssKb, Long.parseLong(value.substring(0, value.indexOf(' '))));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // The process has exited and been reaped
+        }
+    }
+
+    /**
+     * Gets the pid of a process through {@code Process.pid()}, which is not available before Java 9.
+     */
+    private static long pid(Process process) {
+        try {
+            Method pid = Process.class.getMethod("pid");
+            return (Long) pid.invoke(process);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return -1;
+        }
+    }
+}
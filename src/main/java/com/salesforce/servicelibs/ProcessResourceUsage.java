@@ -0,0 +1,89 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+/**
+ * The resources used by one protolock or protolock plugin process. Figures that could not be measured are -1.
+ */
+final class ProcessResourceUsage {
+
+    private final String name;
+    private final String command;
+    private final long wallMillis;
+    private final long userMillis;
+    private final long systemMillis;
+    private final long peakRssKb;
+
+    ProcessResourceUsage(String name, String command, long wallMillis, long userMillis, long systemMillis,
+                         long peakRssKb) {
+        this.name = name;
+        this.command = command;
+        this.wallMillis = wallMillis;
+        this.userMillis = userMillis;
+        this.systemMillis = systemMillis;
+        this.peakRssKb = peakRssKb;
+    }
+
+    /**
+     * Gets the short name of the invocation.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the command line of the process.
+     */
+    String getCommand() {
+        return command;
+    }
+
+    /**
+     * Gets the elapsed time from starting the process to its exit, in milliseconds.
+     */
+    long getWallMillis() {
+        return wallMillis;
+    }
+
+    /**
+     * Gets the CPU time spent in user mode, in milliseconds.
+     */
+    long getUserMillis() {
+        return userMillis;
+    }
+
+    /**
+     * Gets the CPU time spent in the kernel, in milliseconds.
+     */
+    long getSystemMillis() {
+        return systemMillis;
+    }
+
+    /**
+     * Gets the peak resident set size, in kilobytes.
+     */
+    long getPeakRssKb() {
+        return peakRssKb;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name).append(": wall ").append(seconds(wallMillis));
+        if (userMillis >= 0) {
+            builder.append(", user ").append(seconds(userMillis)).append(", sys ").append(seconds(systemMillis));
+        }
+        if (peakRssKb >= 0) {
+            builder.append(", peak RSS ").append(peakRssKb / 1024).append(" MB");
+        }
+        return builder.toString();
+    }
+
+    private static String seconds(long millis) {
+        return String.format("%d.%03ds", millis / 1000, millis % 1000);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.salesforce.servicelibs.ProtoSourceScanner.ProtoSourceFile;
+import com.salesforce.servicelibs.ProtoSourceScanner.ProtoSourceScan;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Splits the proto files of a tree into shards that can be checked on separate machines. The split only depends on
+ * the paths and sizes of the files, so every machine computes the same shards, and files are spread so that each
+ * shard holds about the same number of bytes.
+ */
+final class ProtoShards {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private final int shardCount;
+    private final Set<String> protoFiles = new HashSet<>();
+    private final List<Set<String>> shards = new ArrayList<>();
+
+    /**
+     * Assigns the proto files of a tree to shards. Files are taken from the largest to the smallest, each going to
+     * the shard with the fewest bytes so far, and ties go to the lowest shard.
+     *
+     * @param scan       the scan of the proto tree.
+     * @param shardCount the number of shards.
+     */
+    ProtoShards(ProtoSourceScan scan, int shardCount) {
+        this.shardCount = shardCount;
+        long[] shardSizes = new long[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new TreeSet<>());
+        }
+
+        List<ProtoSourceFile> files = new ArrayList<>(scan.getProtoFiles());
+        files.sort((a, b) -> a.getSize() != b.getSize()
+            ? Long.compare(b.getSize(), a.getSize()) : a.getPath().compareTo(b.getPath()));
+        for (ProtoSourceFile file : files) {
+            int smallest = 0;
+            for (int i = 1; i < shardCount; i++) {
+                if (shardSizes[i] < shardSizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            shards.get(smallest).add(file.getPath());
+            shardSizes[smallest] += file.getSize();
+            protoFiles.add(file.getPath());
+        }
+    }
+
+    /**
+     * Gets the proto files assigned to a shard.
+     *
+     * @param shardIndex the shard.
+     * @return the relative paths of the files, sorted.
+     */
+    Set<String> getFiles(int shardIndex) {
+        return shards.get(shardIndex);
+    }
+
+    /**
+     * Determines whether a shard is responsible for a proto file in the lock. Files that are no longer in the tree
+     * are spread over the shards by a hash of their path, so that exactly one shard reports their removal.
+     *
+     * @param shardIndex the shard.
+     * @param path       the relative path of the file.
+     * @return true if the shard checks the file.
+     */
+    boolean isInShard(int shardIndex, String path) {
+        if (protoFiles.contains(path)) {
+            return shards.get(shardIndex).contains(path);
+        }
+        return Math.floorMod(path.hashCode(), shardCount) == shardIndex;
+    }
+
+    /**
+     * Lists the paths protolock should ignore to only check one shard. A directory with no files in the shard is
+     * ignored as a whole rather than file by file, to keep the list short.
+     *
+     * @param shardIndex the shard.
+     * @param ignored    the paths that are left out of the check regardless of sharding.
+     * @return the paths to ignore, relative to the proto root.
+     */
+    List<String> ignoredOutside(int shardIndex, List<String> ignored) {
+        Set<String> shardDirectories = new HashSet<>();
+        for (String path : shards.get(shardIndex)) {
+            for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+                shardDirectories.add(path.substring(0, slash));
+            }
+        }
+
+        Set<String> ignoredPaths = new TreeSet<>(ignored);
+        for (String path : protoFiles) {
+            if (shards.get(shardIndex).contains(path)) {
+                continue;
+            }
+            // Ignore the outermost directory that holds nothing from this shard, or the file itself
+            String ignoredPath = path;
+            int slash = path.indexOf('/');
+            while (slash > 0) {
+                String directory = path.substring(0, slash);
+                if (!shardDirectories.contains(directory)) {
+                    ignoredPath = directory;
+                    break;
+                }
+                slash = path.indexOf('/', slash + 1);
+            }
+            ignoredPaths.add(ignoredPath);
+        }
+        return new ArrayList<>(ignoredPaths);
+    }
+
+    /**
+     * Writes the report of one shard.
+     *
+     * @param reportFile the file to write.
+     * @param report     the report.
+     * @throws IOException if the report can not be written.
+     */
+    static void writeReport(Path reportFile, ShardReport report) throws IOException {
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        try (Writer writer = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+            GSON.toJson(report, writer);
+        }
+    }
+
+    /**
+     * Reads the report of one shard.
+     *
+     * @param reportFile the file to read.
+     * @return the report.
+     * @throws IOException if the report can not be read.
+     */
+    static ShardReport readReport(Path reportFile) throws IOException {
+        try (Reader reader = Files.newBufferedReader(reportFile, StandardCharsets.UTF_8)) {
+            return GSON.fromJson(reader, ShardReport.class);
+        }
+    }
+
+    /**
+     * The outcome of checking one shard.
+     */
+    static final class ShardReport {
+        private int shardIndex;
+        private int shardCount;
+        private int protoFiles;
+        private boolean passed;
+        private boolean breakingChangesAccepted;
+        private List<ProtolockWarning> warnings = new ArrayList<>();
+
+        ShardReport(int shardIndex, int shardCount, int protoFiles) {
+            this.shardIndex = shardIndex;
+            this.shardCount = shardCount;
+            this.protoFiles = protoFiles;
+        }
+
+        /**
+         * Gets the index of the shard.
+         */
+        int getShardIndex() {
+            return shardIndex;
+        }
+
+        /**
+         * Gets the number of shards the tree was split into.
+         */
+        int getShardCount() {
+            return shardCount;
+        }
+
+        /**
+         * Gets the number of proto files in the shard.
+         */
+        int getProtoFiles() {
+            return protoFiles;
+        }
+
+        /**
+         * Determines whether the shard passed, and its lock fragment was committed.
+         */
+        boolean isPassed() {
+            return passed;
+        }
+
+        /**
+         * Determines whether breaking changes were found but accepted.
+         */
+        boolean isBreakingChangesAccepted() {
+            return breakingChangesAccepted;
+        }
+
+        /**
+         * Gets the breaking changes reported for the shard.
+         */
+        List<ProtolockWarning> getWarnings() {
+            return warnings;
+        }
+
+        ShardReport passed(boolean breakingChangesAccepted) {
+            this.passed = true;
+            this.breakingChangesAccepted = breakingChangesAccepted;
+            return this;
+        }
+
+        ShardReport failed(List<ProtolockWarning> warnings) {
+            this.passed = false;
+            this.warnings = new ArrayList<>(warnings);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Walks a proto source tree once, applying include and exclude globs. Globs are matched against paths relative to
+ * the root, using {@code /} as the separator. An exclude ending in {@code /**} excludes a whole directory without
+ * descending into it.
+ */
+final class ProtoSourceScanner {
+
+    private static final String PROTO_EXTENSION = ".proto";
+    private static final String SUBTREE_SUFFIX = "/**";
+
+    private final List<PathMatcher> includes = new ArrayList<>();
+    private final List<PathMatcher> excludes = new ArrayList<>();
+    private final List<PathMatcher> excludedDirectories = new ArrayList<>();
+
+    /**
+     * Creates a scanner.
+     *
+     * @param includes globs of proto files to check. All proto files are checked when empty.
+     * @param excludes globs of proto files and directories to leave out of the check.
+     */
+    ProtoSourceScanner(List<String> includes, List<String> excludes) {
+        FileSystem fileSystem = FileSystems.getDefault();
+        for (String include : nullToEmpty(includes)) {
+            this.includes.add(fileSystem.getPathMatcher("glob:" + include));
+        }
+        for (String exclude : nullToEmpty(excludes)) {
+            this.excludes.add(fileSystem.getPathMatcher("glob:" + exclude));
+            if (exclude.endsWith(SUBTREE_SUFFIX)) {
+                String directory = exclude.substring(0, exclude.length() - SUBTREE_SUFFIX.length());
+                excludedDirectories.add(fileSystem.getPathMatcher("glob:" + directory));
+            }
+        }
+    }
+
+    /**
+     * Scans a proto source tree.
+     *
+     * @param root the root of the proto source tree.
+     * @return the included proto files and the paths left out of the check.
+     * @throws IOException if the tree can not be read.
+     */
+    ProtoSourceScan scan(Path root) throws IOException {
+        ProtoSourceScan scan = new ProtoSourceScan();
+        if (!Files.isDirectory(root)) {
+            return scan;
+        }
+
+        // Each level of the stack holds the paths ignored so far within a directory, and whether that
+        // directory contains anything that is checked. Directories with nothing checked collapse to one entry.
+        Deque<List<String>> ignoredStack = new ArrayDeque<>();
+        Deque<boolean[]> checkedStack = new ArrayDeque<>();
+
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                String relative = relativize(root, dir);
+                if (!relative.isEmpty() && matchesAny(excludedDirectories, relative)) {
+                    ignoredStack.peek().add(relative);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                ignoredStack.push(new ArrayList<>());
+                checkedStack.push(new boolean[] {false});
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String relative = relativize(root, file);
+                if (!relative.endsWith(PROTO_EXTENSION)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if ((includes.isEmpty() || matchesAny(includes, relative)) && !matchesAny(excludes, relative)) {
+                    scan.protoFiles.add(new ProtoSourceFile(relative, attrs.size()));
+                    checkedStack.peek()[0] = true;
+                } else {
+                    ignoredStack.peek().add(relative);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null) {
+                    throw exc;
+                }
+                List<String> ignored = ignoredStack.pop();
+                boolean checked = checkedStack.pop()[0];
+                String relative = relativize(root, dir);
+                if (relative.isEmpty()) {
+                    scan.ignored.addAll(ignored);
+                } else if (!checked && !ignored.isEmpty()) {
+                    ignoredStack.peek().add(relative);
+                } else {
+                    ignoredStack.peek().addAll(ignored);
+                    checkedStack.peek()[0] |= checked;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        Collections.sort(scan.protoFiles);
+        Collections.sort(scan.ignored);
+        return scan;
+    }
+
+    private static String relativize(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static boolean matchesAny(List<PathMatcher> matchers, String relative) {
+        Path path = Paths.get(relative);
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> nullToEmpty(List<String> list) {
+        return list == null ? Collections.<String>emptyList() : list;
+    }
+
+    /**
+     * The result of scanning a proto source tree.
+     */
+    static final class ProtoSourceScan {
+        private final List<ProtoSourceFile> protoFiles = new ArrayList<>();
+        private final List<String> ignored = new ArrayList<>();
+
+        /**
+         * Gets the proto files that are checked, sorted by path.
+         */
+        List<ProtoSourceFile> getProtoFiles() {
+            return protoFiles;
+        }
+
+        /**
+         * Gets the files and directories left out of the check, relative to the root.
+         */
+        List<String> getIgnored() {
+            return ignored;
+        }
+
+        /**
+         * Determines whether a proto file was left out of the check.
+         *
+         * @param relative the path of the file relative to the root, using {@code /} as the separator.
+         * @return true if the file, or a directory containing it, was left out.
+         */
+        boolean isIgnored(String relative) {
+            for (String ignoredPath : ignored) {
+                if (relative.equals(ignoredPath) || relative.startsWith(ignoredPath + "/")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A proto file found by a scan.
+     */
+    static final class ProtoSourceFile implements Comparable<ProtoSourceFile> {
+        private final String path;
+        private final long size;
+
+        ProtoSourceFile(String path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        /**
+         * Gets the path of the file relative to the root, using {@code /} as the separator.
+         */
+        String getPath() {
+            return path;
+        }
+
+        /**
+         * Gets the size of the file in bytes.
+         */
+        long getSize() {
+            return size;
+        }
+
+        @Override
+        public int compareTo(ProtoSourceFile other) {
+            return path.compareTo(other.path);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Forwards protolock output to the Maven log. When a limit is set, only the first and last lines of the output are
+ * logged, followed by a count of conflicts per file and rule, and the full output is written to a file by a
+ * background thread so that a large report never slows down the build. Lines wait for the writer in a bounded queue,
+ * so that a writer that falls behind briefly holds up the output rather than filling the heap.
+ */
+final class ProtolockOutput implements Closeable {
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // Marks the end of the output in the queue. It is compared by identity, so it can not be mistaken for a line
+    private static final String END_OF_OUTPUT = new String("");
+
+    private final Log log;
+    private final int limit;
+    private final Path outputFile;
+    private final BlockingQueue<String> pending;
+    private final Thread writerThread;
+
+    private final Deque<String> tail = new ArrayDeque<>();
+    private final Map<String, Integer> conflictsByFile = new HashMap<>();
+    private final Map<String, Integer> conflictsByRule = new HashMap<>();
+    private int lineCount;
+    private volatile IOException writeFailure;
+
+    /**
+     * Creates an output that forwards every line to the log.
+     *
+     * @param log the log to forward to.
+     */
+    ProtolockOutput(Log log) {
+        this.log = log;
+        this.limit = 0;
+        this.outputFile = null;
+        this.pending = null;
+        this.writerThread = null;
+    }
+
+    /**
+     * Creates an output that logs a bounded summary and writes everything to a file.
+     *
+     * @param log        the log to forward to.
+     * @param limit      the number of lines to log at the start and at the end of the output.
+     * @param outputFile the file the full output is written to.
+     * @throws IOException if the output file can not be created.
+     */
+    ProtolockOutput(Log log, int limit, Path outputFile) throws IOException {
+        this.log = log;
+        this.limit = limit;
+        this.outputFile = outputFile;
+        Files.createDirectories(outputFile.toAbsolutePath().getParent());
+        BufferedWriter writer = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8);
+        this.pending = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.writerThread = new Thread(() -> writeAll(writer), "protolock-output");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Logs a command line used to run protolock. Command lines are always logged and never counted against the
+     * limit.
+     *
+     * @param commandLine the command line.
+     */
+    void command(String commandLine) {
+        log.info(commandLine);
+        write(commandLine);
+    }
+
+    /**
+     * Handles one line of protolock or protolock plugin output.
+     *
+     * @param line the line.
+     */
+    void line(String line) {
+        if (pending == null) {
+            log.info(line);
+            return;
+        }
+
+        write(line);
+        synchronized (this) {
+            lineCount++;
+            if (lineCount <= limit) {
+                log.info(line);
+            } else {
+                tail.addLast(line);
+                if (tail.size() > limit) {
+                    tail.removeFirst();
+                }
+            }
+            ProtolockWarning warning = ProtolockWarning.parse(line);
+            if (warning != null) {
+                conflictsByFile.merge(String.valueOf(warning.getFilepath()), 1, Integer::sum);
+                if (warning.getRuleName() != null) {
+                    conflictsByRule.merge(warning.getRuleName(), 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles a warning reported by a protolock plugin.
+     *
+     * @param warning the warning.
+     */
+    void warning(ProtolockWarning warning) {
+        if (pending == null) {
+            log.info(warning.toString());
+            return;
+        }
+        line(warning.toString());
+        if (warning.getRuleName() != null) {
+            synchronized (this) {
+                conflictsByRule.merge(warning.getRuleName(), 1, Integer::sum);
+            }
+        }
+    }
+
+    private void write(String line) {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.put(line);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drains the queue into the output file until the end of the output. After a failure, lines are still taken from
+     * the queue so that protolock is never held up, but they are dropped.
+     */
+    private void writeAll(BufferedWriter writer) {
+        try {
+            for (String line = pending.take(); line != END_OF_OUTPUT; line = pending.take()) {
+                if (writeFailure == null) {
+                    try {
+                        writer.write(line);
+                        writer.newLine();
+                    } catch (IOException e) {
+                        writeFailure = e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                if (writeFailure == null) {
+                    writeFailure = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs the end of the output and the conflict summary, and waits for the full output to be written. The full
+     * output is only a copy of what protolock reported, so failing to write it is logged rather than failing the
+     * check.
+     */
+    @Override
+    public synchronized void close() {
+        if (pending == null) {
+            return;
+        }
+
+        int omitted = lineCount - limit - tail.size();
+        if (omitted > 0) {
+            log.info("... " + omitted + " lines omitted ...");
+        }
+        for (String line : tail) {
+            log.info(line);
+        }
+        if (lineCount > limit) {
+            logCounts("Conflicts by file", conflictsByFile);
+            logCounts("Conflicts by rule", conflictsByRule);
+        }
+
+        try {
+            pending.put(END_OF_OUTPUT);
+            writerThread.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted writing the full protolock output to " + outputFile);
+            return;
+        }
+        if (writerThread.isAlive()) {
+            log.warn("Timed out writing the full protolock output to " + outputFile);
+        } else if (writeFailure != null) {
+            log.warn("Unable to write the full protolock output to " + outputFile + ": " + writeFailure.getMessage());
+        } else if (lineCount > limit) {
+            log.info("Full protolock output written to " + outputFile);
+        }
+    }
+
+    private void logCounts(String title, Map<String, Integer> counts) {
+        if (counts.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+            .thenComparing(Map.Entry.comparingByKey()));
+        log.info(title + ":");
+        int shown = 0;
+        for (Map.Entry<String, Integer> entry : entries) {
+            if (shown++ == limit) {
+                log.info("  ... and " + (entries.size() - limit) + " more");
+                break;
+            }
+            log.info("  " + entry.getKey() + ": " + entry.getValue());
+        }
+    }
+}
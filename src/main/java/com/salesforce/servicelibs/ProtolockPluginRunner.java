@@ -0,0 +1,302 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import static java.util.Collections.singletonList;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Runs protolock plugins the same way protolock does, by writing the current and updated lock data to the plugin's
+ * stdin and reading its warnings back from stdout. Running the plugins here rather than inside protolock allows
+ * each plugin's warnings to be cached, keyed by the plugin binary and the lock data it was given, and allows the
+ * plugins to run concurrently, since each only reads the lock data.
+ */
+final class ProtolockPluginRunner {
+
+    private static final Gson GSON = new Gson();
+
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "protolock-plugin-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path cacheDir;
+    private final Map<String, String> environment;
+    private final ChildProcessProfile childProcesses;
+    private final File workingDir;
+    private final ResourceUsageReport resourceUsage;
+    private final Log log;
+    private int concurrency = 1;
+    private long timeoutSeconds;
+    private final Set<Process> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Creates a plugin runner.
+     *
+     * @param cacheDir       the directory where plugin warnings are cached.
+     * @param environment    the environment plugins need, such as {@code PATH}.
+     * @param childProcesses the extra environment and priority plugins are executed with.
+     * @param workingDir     the directory plugins are executed in.
+     * @param resourceUsage  the report the resources used by each plugin process are recorded in.
+     * @param log            the log to report cache activity to.
+     */
+    ProtolockPluginRunner(Path cacheDir, Map<String, String> environment, ChildProcessProfile childProcesses,
+                          File workingDir, ResourceUsageReport resourceUsage, Log log) {
+        this.cacheDir = cacheDir;
+        this.environment = environment;
+        this.childProcesses = childProcesses;
+        this.workingDir = workingDir;
+        this.resourceUsage = resourceUsage;
+        this.log = log;
+    }
+
+    /**
+     * Sets how many plugins may run at once, and how long each may run.
+     *
+     * @param concurrency    the maximum number of plugin processes to run at once.
+     * @param timeoutSeconds the time after which a plugin process is killed, or 0 to let plugins run for as long as
+     *                       they need.
+     * @return this runner.
+     */
+    ProtolockPluginRunner withLimits(int concurrency, long timeoutSeconds) {
+        this.concurrency = Math.max(1, concurrency);
+        this.timeoutSeconds = timeoutSeconds;
+        return this;
+    }
+
+    /**
+     * Kills the plugin processes that are running.
+     */
+    void cancel() {
+        for (Process process : running) {
+            process.destroyForcibly();
+        }
+    }
+
+    /**
+     * Runs the plugins, up to the configured number at once, and collects their warnings. The warnings are returned
+     * in the order the plugins are given, whatever order they finish in.
+     *
+     * @param pluginExecutables the plugin executables to run.
+     * @param currentLock       the committed proto.lock file.
+     * @param updatedLock       a proto.lock file generated from the current proto tree.
+     * @param protolockWarnings the warnings reported by protolock itself.
+     * @return the warnings reported by all plugins.
+     */
+    List<ProtolockWarning> run(List<Path> pluginExecutables, Path currentLock, Path updatedLock,
+                               List<ProtolockWarning> protolockWarnings) throws MojoExecutionException {
+        final String inputHash;
+        try {
+            inputHash = ResidentCache.sha256(currentLock) + ResidentCache.sha256(updatedLock)
+                + Checksums.sha256(GSON.toJson(protolockWarnings));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read protolock lock data", e);
+        }
+
+        List<ProtolockWarning> warnings = new ArrayList<>();
+        if (concurrency == 1 || pluginExecutables.size() == 1) {
+            for (Path plugin : pluginExecutables) {
+                warnings.addAll(runPlugin(plugin, inputHash, currentLock, updatedLock, protolockWarnings));
+            }
+            return warnings;
+        }
+
+        try (Pipeline pipeline = new Pipeline("protolock-plugin", Math.min(concurrency, pluginExecutables.size()))) {
+            List<CompletableFuture<List<ProtolockWarning>>> results = new ArrayList<>();
+            for (Path plugin : pluginExecutables) {
+                results.add(pipeline.submit(
+                    () -> runPlugin(plugin, inputHash, currentLock, updatedLock, protolockWarnings)));
+            }
+            for (CompletableFuture<List<ProtolockWarning>> result : results) {
+                warnings.addAll(Pipeline.join(result));
+            }
+        } catch (MojoFailureException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        } finally {
+            // Plugins still running after another one failed are not needed any more
+            cancel();
+        }
+        return warnings;
+    }
+
+    private List<ProtolockWarning> runPlugin(Path plugin, String inputHash, Path currentLock, Path updatedLock,
+                                             List<ProtolockWarning> protolockWarnings)
+        throws MojoExecutionException {
+        final Path cacheFile;
+        try {
+            cacheFile = cacheDir.resolve(Checksums.sha256(ResidentCache.sha256(plugin) + inputHash) + ".json");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read protolock plugin " + plugin, e);
+        }
+
+        if (Files.exists(cacheFile)) {
+            try (Reader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+                ProtolockWarning[] cached = GSON.fromJson(reader, ProtolockWarning[].class);
+                if (cached != null) {
+                    log.info("Reusing cached results for protolock plugin " + plugin.getFileName());
+                    return Arrays.asList(cached);
+                }
+            } catch (IOException | JsonParseException e) {
+                log.debug("Ignoring unreadable protolock plugin cache entry " + cacheFile);
+            }
+        }
+
+        List<ProtolockWarning> warnings = execute(plugin, currentLock, updatedLock, protolockWarnings);
+
+        try {
+            Files.createDirectories(cacheDir);
+            Path tempFile = Files.createTempFile(cacheDir, "plugin", ".tmp");
+            Files.write(tempFile, GSON.toJson(warnings).getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("Unable to cache results for protolock plugin " + plugin.getFileName() + ": " + e.getMessage());
+        }
+        return warnings;
+    }
+
+    private List<ProtolockWarning> execute(Path plugin, Path currentLock, Path updatedLock,
+                                           List<ProtolockWarning> protolockWarnings)
+        throws MojoExecutionException {
+        log.info("protolock plugin: " + plugin);
+
+        ProcessBuilder builder = new ProcessBuilder(childProcesses.command(singletonList(plugin.toString())))
+            .directory(workingDir)
+            .redirectError(ProcessBuilder.Redirect.INHERIT);
+        builder.environment().clear();
+        builder.environment().putAll(childProcesses.environment(environment));
+
+        final JsonElement output;
+        final int exitCode;
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> timeout = null;
+        Process process = null;
+        ProcessResourceMonitor monitor = null;
+        try {
+            process = builder.start();
+            running.add(process);
+            if (timeoutSeconds > 0) {
+                final Process timedProcess = process;
+                timeout = TIMEOUTS.schedule(() -> {
+                    timedOut.set(true);
+                    timedProcess.destroyForcibly();
+                }, timeoutSeconds, TimeUnit.SECONDS);
+            }
+            monitor = ProcessResourceMonitor.start("protolock plugin " + plugin.getFileName(), plugin.toString(),
+                process);
+            try (OutputStream stdin = process.getOutputStream()) {
+                writeInput(stdin, currentLock, updatedLock, protolockWarnings);
+            }
+            try (Reader stdout = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8)) {
+                output = JsonParser.parseReader(stdout);
+            }
+            monitor.sampleBeforeExit();
+            exitCode = process.waitFor();
+            if (timedOut.get()) {
+                throw timedOut(plugin);
+            }
+        } catch (IOException | JsonParseException e) {
+            if (timedOut.get()) {
+                throw timedOut(plugin);
+            }
+            throw new MojoExecutionException("An error occurred while running protolock plugin " + plugin, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while running protolock plugin " + plugin, e);
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (monitor != null) {
+                resourceUsage.add(monitor.stop());
+            }
+            if (process != null) {
+                running.remove(process);
+            }
+        }
+
+        if (!output.isJsonObject()) {
+            throw new MojoExecutionException("Protolock plugin " + plugin + " returned invalid data");
+        }
+        JsonObject data = output.getAsJsonObject();
+        if (data.has("plugin_error_message") && !data.get("plugin_error_message").getAsString().isEmpty()) {
+            throw new MojoExecutionException("Protolock plugin " + plugin.getFileName() + " failed: "
+                + data.get("plugin_error_message").getAsString());
+        }
+        if (exitCode != 0) {
+            throw new MojoExecutionException("Protolock plugin " + plugin.getFileName() + " exited with code "
+                + exitCode);
+        }
+
+        List<ProtolockWarning> warnings = new ArrayList<>();
+        if (data.has("plugin_warnings") && data.get("plugin_warnings").isJsonArray()) {
+            warnings.addAll(Arrays.asList(GSON.fromJson(data.get("plugin_warnings"), ProtolockWarning[].class)));
+        }
+        return warnings;
+    }
+
+    /**
+     * Creates the error reported for a plugin that was killed because it ran for longer than the timeout.
+     */
+    private MojoExecutionException timedOut(Path plugin) {
+        return new MojoExecutionException("Protolock plugin " + plugin.getFileName() + " timed out after "
+            + timeoutSeconds + " seconds");
+    }
+
+    /**
+     * Writes protolock's {@code extend.Data} structure. The lock files are already JSON, so they are copied verbatim
+     * rather than parsed and re-serialized.
+     */
+    private static void writeInput(OutputStream stdin, Path currentLock, Path updatedLock,
+                                   List<ProtolockWarning> protolockWarnings) throws IOException {
+        Writer writer = new OutputStreamWriter(stdin, StandardCharsets.UTF_8);
+        writer.write("{\"current\":");
+        writer.flush();
+        Files.copy(currentLock, stdin);
+        writer.write(",\"updated\":");
+        writer.flush();
+        Files.copy(updatedLock, stdin);
+        if (!protolockWarnings.isEmpty()) {
+            writer.write(",\"protolock_warnings\":");
+            GSON.toJson(protolockWarnings, writer);
+        }
+        writer.write("}");
+        writer.flush();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A single compatibility warning, serialized the same way as protolock's {@code Warning} type.
+ */
+final class ProtolockWarning {
+
+    private static final String CONFLICT_PREFIX = "CONFLICT: ";
+
+    @SerializedName("filepath")
+    private String filepath;
+
+    @SerializedName("message")
+    private String message;
+
+    @SerializedName("rulename")
+    private String ruleName;
+
+    ProtolockWarning() {
+    }
+
+    ProtolockWarning(String filepath, String message) {
+        this.filepath = filepath;
+        this.message = message;
+    }
+
+    String getFilepath() {
+        return filepath;
+    }
+
+    String getMessage() {
+        return message;
+    }
+
+    String getRuleName() {
+        return ruleName;
+    }
+
+    /**
+     * Parses a line of protolock output of the form {@code CONFLICT: <message> [<filepath>]}.
+     *
+     * @param line a line of protolock output.
+     * @return the warning, or null if the line does not report a conflict.
+     */
+    static ProtolockWarning parse(String line) {
+        if (line == null || !line.startsWith(CONFLICT_PREFIX)) {
+            return null;
+        }
+        String body = line.substring(CONFLICT_PREFIX.length());
+        int open = body.lastIndexOf(" [");
+        if (open < 0 || !body.endsWith("]")) {
+            return new ProtolockWarning(null, body);
+        }
+        return new ProtolockWarning(body.substring(open + 2, body.length() - 1), body.substring(0, open));
+    }
+
+    /**
+     * Formats the warning the same way protolock reports conflicts.
+     *
+     * @return the formatted warning.
+     */
+    @Override
+    public String toString() {
+        return CONFLICT_PREFIX + message + " [" + filepath + "]";
+    }
+}
@@ -0,0 +1,605 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Runs the backwards compatibility check outside of Maven, as a persistent worker for Bazel and other build tools.
+ * With {@code --persistent_worker}, work requests are read from stdin and responses written to stdout, one JSON
+ * object per line, using the JSON flavor of Bazel's worker protocol. Requests with a non-zero {@code requestId} are
+ * multiplexed and run concurrently, except that requests sharing a build directory, where the check keeps its working
+ * files, take turns. Give each proto root its own {@code --buildDirectory} to check them at the same time. Without
+ * {@code --persistent_worker}, a single check is run and its result is the exit code.
+ *
+ * <p>Arguments are the parameters of the backwards-compatibility-check goal, as {@code --name=value}, with lists
+ * and {@code key=value} maps separated by commas. Parameters that are not given take the goal's default values. The
+ * worker adds:</p>
+ * <ul>
+ *     <li>{@code --basedir}: the directory relative paths are resolved against, by default the working
+ *     directory.</li>
+ *     <li>{@code --buildDirectory}: the directory that stands for {@code ${project.build.directory}}, by default
+ *     {@code target} in the base directory.</li>
+ *     <li>{@code --classifier}: the OS classifier, detected by default.</li>
+ *     <li>{@code --protolock}: the protolock binary to run. Required unless a binary for the classifier is on the
+ *     classpath, because the binaries are published as separate artifacts, which the worker does not resolve.</li>
+ * </ul>
+ *
+ * <p>For the same reason, protolock plugins given as Maven artifacts must have been prefetched into
+ * protolockPluginDirectory by the go-offline goal. A malformed request is answered with an error rather than ending
+ * the worker.</p>
+ *
+ * <p>The worker keeps the plugin's in-memory caches between requests, so a check whose inputs did not change since
+ * it last passed returns immediately.</p>
+ */
+public final class ProtolockWorker {
+
+    static final int EXIT_FAILURE = 1;
+    static final int EXIT_ERROR = 2;
+
+    private static final String PERSISTENT_WORKER = "--persistent_worker";
+    private static final String PLUGIN_DESCRIPTOR = "META-INF/maven/plugin.xml";
+    private static final List<String> WORKER_OPTIONS = Arrays.asList("basedir", "buildDirectory", "classifier",
+        "protolock");
+
+    private final Map<String, String> defaults;
+    private final Map<Integer, Future<?>> running = new ConcurrentHashMap<>();
+    private final Map<String, Object> buildDirectories = new ConcurrentHashMap<>();
+    private PrintStream responses;
+
+    /**
+     * Creates a worker, reading the parameters of the check and their defaults from the plugin descriptor.
+     *
+     * @throws IOException if the plugin descriptor can not be read.
+     */
+    ProtolockWorker() throws IOException {
+        this.defaults = readDefaults();
+    }
+
+    /**
+     * Runs the worker.
+     *
+     * @param args {@code --persistent_worker} to serve work requests, or the arguments of a single check.
+     * @throws IOException if the worker can not be started.
+     */
+    public static void main(String[] args) throws IOException {
+        ProtolockWorker worker = new ProtolockWorker();
+        if (Arrays.asList(args).contains(PERSISTENT_WORKER)) {
+            // stdout only carries responses, so anything else printed goes to stderr
+            PrintStream responses = System.out;
+            System.setOut(System.err);
+            worker.serve(System.in, responses);
+            System.exit(0);
+        }
+
+        WorkResult result = worker.check(Arrays.asList(args), false);
+        System.err.print(result.output);
+        System.exit(result.exitCode);
+    }
+
+    /**
+     * Serves work requests until the input is closed.
+     *
+     * @param in  the stream requests are read from.
+     * @param out the stream responses are written to.
+     * @throws IOException if the requests can not be read.
+     */
+    void serve(InputStream in, PrintStream out) throws IOException {
+        responses = out;
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "protolock-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final WorkRequest request;
+                try {
+                    request = new WorkRequest(JsonParser.parseString(line).getAsJsonObject());
+                } catch (RuntimeException e) {
+                    respond(0, new WorkResult(EXIT_ERROR, "[ERROR] Invalid work request: " + e.getMessage() + "\n"));
+                    continue;
+                }
+                int requestId = request.requestId;
+                if (request.cancel) {
+                    cancel(requestId);
+                } else if (requestId == 0) {
+                    // Without multiplexing, the build tool waits for each response before sending a new request
+                    respond(requestId, check(request.arguments, request.verbose));
+                } else {
+                    FutureTask<Void> task = new FutureTask<>(() -> {
+                        respond(requestId, check(request.arguments, request.verbose));
+                        running.remove(requestId);
+                    }, null);
+                    running.put(requestId, task);
+                    executor.execute(task);
+                }
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(1, TimeUnit.HOURS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void cancel(int requestId) {
+        Future<?> request = running.remove(requestId);
+        // A request that already started runs to completion and sends its own response
+        if (request != null && request.cancel(false)) {
+            JsonObject response = new JsonObject();
+            response.addProperty("requestId", requestId);
+            response.addProperty("wasCancelled", true);
+            write(response);
+        }
+    }
+
+    private void respond(int requestId, WorkResult result) {
+        JsonObject response = new JsonObject();
+        response.addProperty("exitCode", result.exitCode);
+        response.addProperty("output", result.output);
+        response.addProperty("requestId", requestId);
+        write(response);
+    }
+
+    private void write(JsonObject response) {
+        synchronized (responses) {
+            responses.println(response.toString());
+            responses.flush();
+        }
+    }
+
+    /**
+     * Runs one backwards compatibility check.
+     *
+     * @param arguments the arguments of the check.
+     * @param verbose   whether debug output should be included.
+     * @return the exit code and output of the check.
+     */
+    WorkResult check(List<String> arguments, boolean verbose) {
+        BufferedLog log = new BufferedLog(verbose);
+        int exitCode = 0;
+        try {
+            BackwardsCompatibilityCheckMojo mojo = createMojo(arguments, log);
+            // Checks keep working files in the build directory, which LockDirCoordinator does not know about
+            Object buildDirectory = buildDirectories.computeIfAbsent(
+                new File(mojo.project.getBuild().getDirectory()).getCanonicalPath(), dir -> new Object());
+            synchronized (buildDirectory) {
+                mojo.execute();
+            }
+        } catch (MojoFailureException e) {
+            log.error(e.getMessage());
+            exitCode = EXIT_FAILURE;
+        } catch (MojoExecutionException | IOException | RuntimeException e) {
+            log.error(e.getMessage(), e);
+            exitCode = EXIT_ERROR;
+        }
+        return new WorkResult(exitCode, log.toString());
+    }
+
+    private BackwardsCompatibilityCheckMojo createMojo(List<String> arguments, Log log)
+        throws IOException, MojoFailureException {
+        Map<String, String> values = new HashMap<>();
+        for (String argument : expandArguments(arguments)) {
+            int equals = argument.indexOf('=');
+            String name = argument.startsWith("--") && equals > 2 ? argument.substring(2, equals) : null;
+            if (name == null || !defaults.containsKey(name) && !WORKER_OPTIONS.contains(name)) {
+                throw new MojoFailureException("Unknown argument " + argument);
+            }
+            values.put(name, argument.substring(equals + 1));
+        }
+
+        File basedir = new File(values.getOrDefault("basedir", ".")).getCanonicalFile();
+        File buildDirectory = resolve(basedir, values.getOrDefault("buildDirectory", "target"));
+        final String classifier = values.containsKey("classifier") ? values.get("classifier") : detectClassifier();
+
+        BackwardsCompatibilityCheckMojo mojo = new BackwardsCompatibilityCheckMojo();
+        mojo.setLog(log);
+        for (Map.Entry<String, String> parameter : defaults.entrySet()) {
+            String value = values.containsKey(parameter.getKey())
+                ? values.get(parameter.getKey())
+                : evaluate(parameter.getValue(), basedir, buildDirectory);
+            if (value != null) {
+                setParameter(mojo, parameter.getKey(), value, basedir);
+            }
+        }
+
+        Model model = new Model();
+        model.setArtifactId(basedir.getName());
+        model.addProperty("os.detected.classifier", classifier);
+        Build build = new Build();
+        build.setDirectory(buildDirectory.getPath());
+        model.setBuild(build);
+        mojo.project = new MavenProject(model);
+        mojo.project.setFile(new File(basedir, "pom.xml"));
+
+        if (values.containsKey("protolock")) {
+            mojo.protolockExecutable = resolve(basedir, values.get("protolock")).toPath();
+        } else if (ProtolockWorker.class.getClassLoader().getResource(
+            classifier + "/protolock" + AbstractProtolockMojo.executableExtension(classifier)) == null) {
+            throw new MojoFailureException("No protolock binary for " + classifier + " is bundled with the worker. "
+                + "Give the protolock binary to run with --protolock");
+        }
+        return mojo;
+    }
+
+    /**
+     * Expands Bazel flag files, given as {@code @path}, into the arguments they hold, one per line.
+     */
+    private static List<String> expandArguments(List<String> arguments) throws IOException {
+        List<String> expanded = new ArrayList<>();
+        for (String argument : arguments) {
+            if (argument.startsWith("@") && !argument.startsWith("@@")) {
+                for (String line : Files.readAllLines(Paths.get(argument.substring(1)), StandardCharsets.UTF_8)) {
+                    if (!line.isEmpty()) {
+                        expanded.add(line);
+                    }
+                }
+            } else if (!PERSISTENT_WORKER.equals(argument)) {
+                expanded.add(argument);
+            }
+        }
+        return expanded;
+    }
+
+    private static String evaluate(String defaultValue, File basedir, File buildDirectory) {
+        if (defaultValue == null) {
+            return null;
+        }
+        String value = defaultValue
+            .replace("${project.build.directory}", buildDirectory.getPath())
+            .replace("${project.basedir}", basedir.getPath())
+            .replace("${basedir}", basedir.getPath());
+        return value.contains("${") ? null : value;
+    }
+
+    private static void setParameter(Object mojo, String name, String value, File basedir) throws IOException {
+        Field field = findField(mojo.getClass(), name);
+        field.setAccessible(true);
+        Class<?> type = field.getType();
+        try {
+            if (type == boolean.class) {
+                field.setBoolean(mojo, Boolean.parseBoolean(value));
+            } else if (type == int.class) {
+                field.setInt(mojo, Integer.parseInt(value));
+            } else if (type == File.class) {
+                field.set(mojo, resolve(basedir, value));
+            } else if (type == List.class) {
+                List<String> list = new ArrayList<>();
+                for (String element : value.split(",")) {
+                    if (!element.trim().isEmpty()) {
+                        list.add(element.trim());
+                    }
+                }
+                field.set(mojo, list);
+            } else if (type == Map.class) {
+                Map<String, String> map = new LinkedHashMap<>();
+                for (String entry : value.split(",")) {
+                    int equals = entry.indexOf('=');
+                    if (equals > 0) {
+                        map.put(entry.substring(0, equals).trim(), entry.substring(equals + 1).trim());
+                    }
+                }
+                field.set(mojo, map);
+            } else {
+                field.set(mojo, value);
+            }
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            throw new IOException("Unable to set " + name + " to " + value, e);
+        }
+    }
+
+    private static Field findField(Class<?> type, String name) throws IOException {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            try {
+                return current.getDeclaredField(name);
+            } catch (NoSuchFieldException e) {
+                // Look in the superclass
+            }
+        }
+        throw new IOException("No field for parameter " + name);
+    }
+
+    private static File resolve(File basedir, String path) {
+        File file = new File(path);
+        return file.isAbsolute() ? file : new File(basedir, path);
+    }
+
+    /**
+     * Detects the OS classifier the way os-maven-plugin names it.
+     */
+    private static String detectClassifier() {
+        String os = System.getProperty("os.name").toLowerCase(Locale.ROOT);
+        String arch = System.getProperty("os.arch").toLowerCase(Locale.ROOT);
+        String osName = os.contains("mac") ? "osx" : os.contains("windows") ? "windows" : "linux";
+        String archName = arch.equals("aarch64") || arch.equals("arm64") ? "aarch_64" : "x86_64";
+        return osName + "-" + archName;
+    }
+
+    /**
+     * Reads the user-settable parameters of the check and their default values from the plugin descriptor.
+     */
+    private static Map<String, String> readDefaults() throws IOException {
+        String implementation = BackwardsCompatibilityCheckMojo.class.getName();
+        Enumeration<URL> descriptors = ProtolockWorker.class.getClassLoader().getResources(PLUGIN_DESCRIPTOR);
+        while (descriptors.hasMoreElements()) {
+            Element mojo = findMojo(descriptors.nextElement(), implementation);
+            if (mojo == null) {
+                continue;
+            }
+
+            Map<String, String> defaults = new HashMap<>();
+            for (Element parameter : children(child(mojo, "parameters"), "parameter")) {
+                if ("true".equals(text(child(parameter, "editable")))) {
+                    defaults.put(text(child(parameter, "name")), null);
+                }
+            }
+            Element configuration = child(mojo, "configuration");
+            if (configuration != null) {
+                NodeList nodes = configuration.getChildNodes();
+                for (int i = 0; i < nodes.getLength(); i++) {
+                    Node node = nodes.item(i);
+                    if (node instanceof Element && defaults.containsKey(node.getNodeName())
+                        && ((Element) node).hasAttribute("default-value")) {
+                        defaults.put(node.getNodeName(), ((Element) node).getAttribute("default-value"));
+                    }
+                }
+            }
+            return defaults;
+        }
+        throw new IOException("Unable to find " + PLUGIN_DESCRIPTOR + " for " + implementation);
+    }
+
+    private static Element findMojo(URL descriptor, String implementation) throws IOException {
+        try (InputStream in = descriptor.openStream()) {
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(in);
+            NodeList mojos = document.getElementsByTagName("mojo");
+            for (int i = 0; i < mojos.getLength(); i++) {
+                Element mojo = (Element) mojos.item(i);
+                if (implementation.equals(text(child(mojo, "implementation")))) {
+                    return mojo;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Unable to read " + descriptor, e);
+        }
+    }
+
+    private static Element child(Element parent, String name) {
+        List<Element> children = children(parent, name);
+        return children.isEmpty() ? null : children.get(0);
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> children = new ArrayList<>();
+        if (parent != null) {
+            NodeList nodes = parent.getChildNodes();
+            for (int i = 0; i < nodes.getLength(); i++) {
+                if (nodes.item(i) instanceof Element && name.equals(nodes.item(i).getNodeName())) {
+                    children.add((Element) nodes.item(i));
+                }
+            }
+        }
+        return children;
+    }
+
+    private static String text(Element element) {
+        return element == null ? null : element.getTextContent().trim();
+    }
+
+    /**
+     * A work request, or the cancellation of one.
+     */
+    private static final class WorkRequest {
+        private final int requestId;
+        private final boolean cancel;
+        private final List<String> arguments = new ArrayList<>();
+        private final boolean verbose;
+
+        WorkRequest(JsonObject request) {
+            requestId = request.has("requestId") ? request.get("requestId").getAsInt() : 0;
+            cancel = request.has("cancel") && request.get("cancel").getAsBoolean();
+            if (request.has("arguments")) {
+                for (JsonElement argument : request.getAsJsonArray("arguments")) {
+                    arguments.add(argument.getAsString());
+                }
+            }
+            verbose = request.has("verbosity") && request.get("verbosity").getAsInt() > 0;
+        }
+    }
+
+    /**
+     * The outcome of one check.
+     */
+    static final class WorkResult {
+        private final int exitCode;
+        private final String output;
+
+        WorkResult(int exitCode, String output) {
+            this.exitCode = exitCode;
+            this.output = output;
+        }
+
+        /**
+         * Gets the exit code: 0 if the check passed, 1 if it failed and 2 if it could not run.
+         */
+        int getExitCode() {
+            return exitCode;
+        }
+
+        /**
+         * Gets the log of the check.
+         */
+        String getOutput() {
+            return output;
+        }
+    }
+
+    /**
+     * Collects the log of one check, to be returned in its response.
+     */
+    private static final class BufferedLog implements Log {
+        private final boolean debug;
+        private final StringBuilder output = new StringBuilder();
+
+        BufferedLog(boolean debug) {
+            this.debug = debug;
+        }
+
+        private synchronized void log(String level, CharSequence content, Throwable error) {
+            output.append('[').append(level).append("] ");
+            if (content != null) {
+                output.append(content);
+            }
+            output.append('\n');
+            if (error != null) {
+                StringWriter trace = new StringWriter();
+                error.printStackTrace(new PrintWriter(trace));
+                output.append(trace);
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return output.toString();
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return debug;
+        }
+
+        @Override
+        public void debug(CharSequence content) {
+            debug(content, null);
+        }
+
+        @Override
+        public void debug(CharSequence content, Throwable error) {
+            if (debug) {
+                log("DEBUG", content, error);
+            }
+        }
+
+        @Override
+        public void debug(Throwable error) {
+            debug(null, error);
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return true;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+            log("INFO", content, null);
+        }
+
+        @Override
+        public void info(CharSequence content, Throwable error) {
+            log("INFO", content, error);
+        }
+
+        @Override
+        public void info(Throwable error) {
+            log("INFO", null, error);
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        @Override
+        public void warn(CharSequence content) {
+            log("WARNING", content, null);
+        }
+
+        @Override
+        public void warn(CharSequence content, Throwable error) {
+            log("WARNING", content, error);
+        }
+
+        @Override
+        public void warn(Throwable error) {
+            log("WARNING", null, error);
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        @Override
+        public void error(CharSequence content) {
+            log("ERROR", content, null);
+        }
+
+        @Override
+        public void error(CharSequence content, Throwable error) {
+            log("ERROR", content, error);
+        }
+
+        @Override
+        public void error(Throwable error) {
+            log("ERROR", null, error);
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Caches that live as long as the plugin's class realm. A plain Maven build starts with them empty, but under the
+ * Maven daemon the realm is reused between builds, so repeated builds skip hashing files and re-checking proto trees
+ * that have not changed. Every cache is a bounded LRU map.
+ *
+ * <p>File hashes are only reused while the file's size, modification time and file key are unchanged, and the file
+ * was last modified well before it was hashed. Every other cached value is keyed by those hashes, so a changed input
+ * is always seen.</p>
+ */
+final class ResidentCache {
+
+    private static final int MAX_FILE_HASHES = 16384;
+    private static final int MAX_RESOURCE_HASHES = 16;
+    private static final int MAX_API_FINGERPRINTS = 16384;
+    private static final int MAX_PASSED_CHECKS = 64;
+    private static final int FINGERPRINT_STRIPES = 64;
+
+    // Like git's racy-clean check, a hash is not trusted if the file may have been modified again within the
+    // timestamp granularity of the file system after it was hashed
+    private static final long TIMESTAMP_GRANULARITY_MILLIS = 2000;
+
+    // The maps are visible to tests, which must hold a map's lock while using it
+    static final Map<Path, FileHash> FILE_HASHES = lruMap(MAX_FILE_HASHES);
+    private static final Map<String, String> RESOURCE_HASHES = lruMap(MAX_RESOURCE_HASHES);
+    static final Map<String, String> API_FINGERPRINTS = lruMap(MAX_API_FINGERPRINTS);
+    static final Map<String, Boolean> PASSED_CHECKS = lruMap(MAX_PASSED_CHECKS);
+    private static final Object[] FINGERPRINT_LOCKS = locks(FINGERPRINT_STRIPES);
+
+    private ResidentCache() {
+    }
+
+    /**
+     * Computes the SHA-256 of a file, reusing the previous hash while the file is unchanged.
+     *
+     * @param file the file.
+     * @return the hex-encoded hash.
+     * @throws IOException if the file can not be read.
+     */
+    static String sha256(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        String stamp = stamp(attributes);
+        synchronized (FILE_HASHES) {
+            FileHash cached = FILE_HASHES.get(key);
+            if (cached != null && cached.stamp.equals(stamp)) {
+                return cached.hash;
+            }
+        }
+        long hashedAt = System.currentTimeMillis();
+        String hash = Checksums.sha256(key);
+        if (attributes.lastModifiedTime().toMillis() < hashedAt - TIMESTAMP_GRANULARITY_MILLIS) {
+            synchronized (FILE_HASHES) {
+                FILE_HASHES.put(key, new FileHash(stamp, hash));
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Computes the SHA-256 of a resource on the plugin's classpath. Resources can not change while the class realm
+     * is alive, so each is only hashed once.
+     *
+     * @param loader       the class loader to read the resource from.
+     * @param resourcePath the resource.
+     * @return the hex-encoded hash.
+     * @throws IOException if the resource can not be read.
+     */
+    static String resourceSha256(ClassLoader loader, String resourcePath) throws IOException {
+        synchronized (RESOURCE_HASHES) {
+            String cached = RESOURCE_HASHES.get(resourcePath);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        String hash;
+        try (InputStream in = loader.getResourceAsStream(resourcePath)) {
+            if (in == null) {
+                throw new IOException("Missing resource " + resourcePath);
+            }
+            hash = Checksums.sha256(in);
+        }
+        synchronized (RESOURCE_HASHES) {
+            RESOURCE_HASHES.put(resourcePath, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Fingerprints the API of each proto file in a tree. A file is only parsed again when its content changes, and
+     * files shared by several modules, such as common types reached through overlapping proto roots or symbolic
+     * links, are parsed by one module while the others wait for its result.
+     *
+     * @param root the root of the tree.
+     * @return the fingerprint of each file by relative path, sorted by path.
+     * @throws IOException if the tree can not be read.
+     * @see ApiFingerprint
+     */
+    static SortedMap<String, String> apiFingerprints(Path root) throws IOException {
+        SortedMap<String, String> fingerprints = new TreeMap<>();
+        if (!Files.isDirectory(root)) {
+            return fingerprints;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (file.getFileName().toString().endsWith(".proto")) {
+                    String relative = root.relativize(file).toString().replace(File.separatorChar, '/');
+                    fingerprints.put(relative, apiFingerprint(file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return fingerprints;
+    }
+
+    private static String apiFingerprint(Path file) throws IOException {
+        // Files are locked by canonical path, in stripes, so that modules running in parallel never parse the same
+        // file at once while unrelated files are parsed concurrently
+        Path canonicalFile = file.toRealPath();
+        synchronized (FINGERPRINT_LOCKS[Math.floorMod(canonicalFile.hashCode(), FINGERPRINT_LOCKS.length)]) {
+            String hash = sha256(canonicalFile);
+            synchronized (API_FINGERPRINTS) {
+                String cached = API_FINGERPRINTS.get(hash);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            byte[] content = Files.readAllBytes(canonicalFile);
+            // The file may have changed since it was hashed, so the fingerprint is keyed by the content it was
+            // taken of
+            String fingerprint = ApiFingerprint.of(content);
+            synchronized (API_FINGERPRINTS) {
+                API_FINGERPRINTS.put(Checksums.sha256(content), fingerprint);
+            }
+            return fingerprint;
+        }
+    }
+
+    /**
+     * Determines whether a check with exactly the same inputs has already passed in this class realm.
+     *
+     * @param inputs a fingerprint of every input of the check.
+     * @return true if the check passed.
+     */
+    static boolean hasPassed(String inputs) {
+        synchronized (PASSED_CHECKS) {
+            return PASSED_CHECKS.containsKey(inputs);
+        }
+    }
+
+    /**
+     * Records that a check passed, leaving its inputs in the state given.
+     *
+     * @param inputs a fingerprint of every input of the check, taken after the check updated the lock.
+     */
+    static void passed(String inputs) {
+        synchronized (PASSED_CHECKS) {
+            PASSED_CHECKS.put(inputs, Boolean.TRUE);
+        }
+    }
+
+    private static String stamp(BasicFileAttributes attributes) {
+        return attributes.size() + ":" + attributes.lastModifiedTime().toMillis() + ":" + attributes.fileKey();
+    }
+
+    private static Object[] locks(int stripes) {
+        Object[] locks = new Object[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new Object();
+        }
+        return locks;
+    }
+
+    static <K, V> Map<K, V> lruMap(int maxEntries) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * The hash of a file, and the file attributes it was computed for.
+     */
+    static final class FileHash {
+        private final String stamp;
+        private final String hash;
+
+        FileHash(String stamp, String hash) {
+            this.stamp = stamp;
+            this.hash = hash;
+        }
+    }
+}
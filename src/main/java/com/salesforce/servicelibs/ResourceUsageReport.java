@@ -0,0 +1,115 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Collects the resources used by the protolock and protolock plugin processes of one module, logs them, and writes
+ * them to a JSON report.
+ */
+final class ResourceUsageReport {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private final String module;
+    private final Log log;
+    private final List<ProcessResourceUsage> invocations = new ArrayList<>();
+
+    /**
+     * Creates an empty report.
+     *
+     * @param module the module being checked.
+     * @param log    the log each invocation is reported to.
+     */
+    ResourceUsageReport(String module, Log log) {
+        this.module = module;
+        this.log = log;
+    }
+
+    /**
+     * Records and logs the resources used by one process.
+     *
+     * @param usage the resources used.
+     */
+    synchronized void add(ProcessResourceUsage usage) {
+        invocations.add(usage);
+        log.info("Resource usage of " + usage);
+    }
+
+    /**
+     * Logs the totals for the module and writes the report.
+     *
+     * @param reportFile the file to write the report to.
+     * @throws IOException if the report can not be written.
+     */
+    synchronized void write(Path reportFile) throws IOException {
+        if (invocations.isEmpty()) {
+            return;
+        }
+        ProcessResourceUsage total = total();
+        log.info("Resource usage of " + invocations.size() + " protolock processes for " + total);
+
+        JsonObject report = new JsonObject();
+        report.addProperty("module", module);
+        report.add("total", toJson(total));
+        JsonArray array = new JsonArray();
+        for (ProcessResourceUsage usage : invocations) {
+            array.add(toJson(usage));
+        }
+        report.add("invocations", array);
+
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        try (Writer writer = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8)) {
+            GSON.toJson(report, writer);
+        }
+    }
+
+    /**
+     * Sums the invocations. CPU times are summed, and memory is the peak of any single process.
+     */
+    private ProcessResourceUsage total() {
+        long wall = 0;
+        long user = -1;
+        long system = -1;
+        long peakRss = -1;
+        for (ProcessResourceUsage usage : invocations) {
+            wall += usage.getWallMillis();
+            if (usage.getUserMillis() >= 0) {
+                user = Math.max(user, 0) + usage.getUserMillis();
+                system = Math.max(system, 0) + usage.getSystemMillis();
+            }
+            peakRss = Math.max(peakRss, usage.getPeakRssKb());
+        }
+        return new ProcessResourceUsage(module == null ? "module" : module, null, wall, user, system, peakRss);
+    }
+
+    private static JsonObject toJson(ProcessResourceUsage usage) {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", usage.getName());
+        if (usage.getCommand() != null) {
+            json.addProperty("command", usage.getCommand());
+        }
+        json.addProperty("wallMillis", usage.getWallMillis());
+        json.addProperty("userMillis", usage.getUserMillis());
+        json.addProperty("systemMillis", usage.getSystemMillis());
+        json.addProperty("peakRssKb", usage.getPeakRssKb());
+        return json;
+    }
+}
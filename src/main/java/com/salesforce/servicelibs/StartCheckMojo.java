@@ -0,0 +1,31 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+/**
+ * Starts the backwards compatibility check in the background, as soon as the proto sources are ready, so that it
+ * runs while the module is compiled and tested. The backwards-compatibility-check goal then waits for it, replays its
+ * log and fails the build if it failed. The check takes the same configuration as backwards-compatibility-check.
+ */
+@Mojo(name = "start-check", defaultPhase = LifecyclePhase.PROCESS_SOURCES,
+    requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
+public class StartCheckMojo extends BackwardsCompatibilityCheckMojo {
+
+    /**
+     * Execute the plugin.
+     */
+    @Override
+    public void execute() {
+        getLog().info("Starting the backwards compatibility check in the background");
+        BackgroundCheck.start(project, this);
+    }
+}
@@ -17,6 +17,7 @@ import org.apache.maven.model.Model;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.io.FileUtils;
 import org.junit.Test;
 
 /**
@@ -45,6 +46,7 @@ public class AllowBreakingChangesMojoTest
         throws Exception {
         // required
         super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
         String path = testDir + "protolock-bin";
         File exeDir = getTestFile(path);
         File exeFile = getTestFile(path + "/protolock");
@@ -0,0 +1,110 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+/**
+ * Tests which changes to a proto file change its API fingerprint.
+ */
+public class ApiFingerprintTest
+    extends BetterAbstractMojoTestCase {
+
+    private static final String PROTO = String.join("\n",
+        "syntax = \"proto3\";",
+        "",
+        "// A request",
+        "message Request {",
+        "  string name = 1;",
+        "  int32 size = 2;",
+        "}",
+        "",
+        "enum Color {",
+        "  RED = 0;",
+        "  GREEN = 1;",
+        "}",
+        "");
+
+    /**
+     * Tests that reformatting does not change the fingerprint.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testReformatting()
+        throws Exception {
+        assertSameFingerprint("syntax=\"proto3\";message Request{string name=1;int32 size=2;}"
+            + "enum Color{RED=0;GREEN=1;}");
+        assertSameFingerprint(PROTO.replace("\n", "\r\n").replace("  ", "\t"));
+    }
+
+    /**
+     * Tests that adding, editing and removing comments does not change the fingerprint.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testCommentEdits()
+        throws Exception {
+        assertSameFingerprint(PROTO.replace("// A request", ""));
+        assertSameFingerprint(PROTO.replace("// A request", "/* A request\n * with a name */"));
+        assertSameFingerprint(PROTO.replace("string name = 1;", "string name = 1; // the name; with a } in it"));
+    }
+
+    /**
+     * Tests that moving top-level declarations and message fields around does not change the fingerprint.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testMessageReordering()
+        throws Exception {
+        assertSameFingerprint(String.join("\n",
+            "enum Color {",
+            "  RED = 0;",
+            "  GREEN = 1;",
+            "}",
+            "message Request {",
+            "  int32 size = 2;",
+            "  string name = 1;",
+            "}",
+            "syntax = \"proto3\";"));
+    }
+
+    /**
+     * Tests that reordering enum values changes the fingerprint, because the first value is the default.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testEnumReordering()
+        throws Exception {
+        assertDifferentFingerprint(PROTO.replace("  RED = 0;\n  GREEN = 1;", "  GREEN = 1;\n  RED = 0;"));
+    }
+
+    /**
+     * Tests that changes to the API change the fingerprint.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testApiChanges()
+        throws Exception {
+        assertDifferentFingerprint(PROTO.replace("string name = 1;", "string name = 3;"));
+        assertDifferentFingerprint(PROTO.replace("int32 size", "int64 size"));
+        assertDifferentFingerprint(PROTO.replace("\"proto3\"", "\"proto2\""));
+    }
+
+    private static void assertSameFingerprint(String changed) {
+        assertEquals(fingerprint(PROTO), fingerprint(changed));
+    }
+
+    private static void assertDifferentFingerprint(String changed) {
+        assertFalse(fingerprint(PROTO).equals(fingerprint(changed)));
+    }
+
+    private static String fingerprint(String source) {
+        return ApiFingerprint.of(source.getBytes(StandardCharsets.UTF_8));
+    }
+}
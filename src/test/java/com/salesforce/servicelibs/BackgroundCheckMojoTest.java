@@ -0,0 +1,246 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests that the check can be started in the background and joined later.
+ */
+public class BackgroundCheckMojoTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+    File pom;
+    MavenProject project;
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void setUp()
+        throws Exception {
+        // required
+        super.setUp();
+        pom = getTestFile(testDir + "project-to-test/pom.xml");
+        assertTrue(pom.exists());
+        project = createProject();
+    }
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
+        String path = testDir + "protolock-bin";
+        File exeDir = getTestFile(path);
+        File exeFile = getTestFile(path + "/protolock");
+        exeFile.delete();
+        exeDir.delete();
+        getTestFile(testDir + "proto/proto.lock").delete();
+        getTestFile(testDir + "proto/test.proto").delete();
+    }
+
+    /**
+     * Tests that the result of a background check is reported when it is joined.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testBackgroundCheck()
+        throws Exception {
+        writeTestFile("init.proto");
+        List<String> messages = startAndJoin(false);
+        assertTrue(messages.contains("Initialized protolock."));
+        assertTrue(getTestFile(testDir + "proto/proto.lock").exists());
+
+        writeTestFile("bad.proto");
+        startAndJoin(true);
+
+        // Without a background check, the check runs as before
+        writeTestFile("good.proto");
+        BackwardsCompatibilityCheckMojo checkMojo =
+            (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+        checkMojo.project = project;
+        checkMojo.execute();
+    }
+
+    /**
+     * Tests that a background check configured differently is not reported for the check.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testDifferentConfiguration()
+        throws Exception {
+        writeTestFile("init.proto");
+        startAndJoin(false);
+
+        writeTestFile("bad.proto");
+        StartCheckMojo startMojo = (StartCheckMojo) lookupConfiguredMojo(pom, "start-check");
+        startMojo.project = project;
+        startMojo.execute();
+
+        BackwardsCompatibilityCheckMojo checkMojo =
+            (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+        checkMojo.project = project;
+        setVariableValueToObject(checkMojo, "allowBreakingChanges", true);
+        List<String> warnings = new ArrayList<>();
+        checkMojo.setLog(new SilentLog() {
+            @Override
+            public void warn(CharSequence content) {
+                warnings.add(String.valueOf(content));
+            }
+        });
+        checkMojo.execute();
+        assertEquals(CheckResult.Status.BREAKING_CHANGES_ACCEPTED, CheckResult.find(project).getStatus());
+        assertTrue(warnings.contains("The check started in the background is configured differently from this one, "
+            + "so it is cancelled and the proto files are checked again"));
+    }
+
+    /**
+     * Tests that a background check only commits to proto.lock when it is joined.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testCommitDeferredUntilJoin()
+        throws Exception {
+        writeTestFile("init.proto");
+        startAndJoin(false);
+        File lockFile = getTestFile(testDir + "proto/proto.lock");
+        final String initialLock = new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8);
+
+        writeTestFile("good.proto");
+        StartCheckMojo startMojo = (StartCheckMojo) lookupConfiguredMojo(pom, "start-check");
+        startMojo.project = project;
+        startMojo.execute();
+        Thread.sleep(2000);
+        assertEquals(initialLock, new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8));
+
+        BackwardsCompatibilityCheckMojo checkMojo =
+            (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+        checkMojo.project = project;
+        checkMojo.setLog(new SilentLog());
+        checkMojo.execute();
+        assertTrue(new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8)
+            .contains("requestField4"));
+    }
+
+    /**
+     * Tests that a background check that is never joined is cancelled when the session ends, leaving proto.lock alone.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testCancelledAtSessionEnd()
+        throws Exception {
+        writeTestFile("init.proto");
+        startAndJoin(false);
+        File lockFile = getTestFile(testDir + "proto/proto.lock");
+        final String initialLock = new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8);
+
+        writeTestFile("good.proto");
+        StartCheckMojo startMojo = (StartCheckMojo) lookupConfiguredMojo(pom, "start-check");
+        startMojo.project = project;
+        startMojo.execute();
+        startMojo.session.getRequest().getExecutionListener().sessionEnded(null);
+        Thread.sleep(2000);
+        assertEquals(initialLock, new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8));
+
+        BackwardsCompatibilityCheckMojo checkMojo =
+            (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+        checkMojo.project = project;
+        try {
+            checkMojo.execute();
+            fail();
+        } catch (MojoExecutionException ex) {
+            assertEquals("The backwards compatibility check running in the background was cancelled",
+                ex.getMessage());
+        }
+    }
+
+    /**
+     * Starts the check in the background and joins it.
+     * @param shouldFail the check should pass or fail.
+     * @return the messages logged by the join.
+     */
+    private List<String> startAndJoin(boolean shouldFail)
+        throws Exception {
+        StartCheckMojo startMojo = (StartCheckMojo) lookupConfiguredMojo(pom, "start-check");
+        startMojo.project = project;
+        startMojo.execute();
+
+        BackwardsCompatibilityCheckMojo checkMojo =
+            (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+        checkMojo.project = project;
+        List<String> messages = new ArrayList<>();
+        checkMojo.setLog(new SilentLog() {
+            @Override
+            public void info(CharSequence content, Throwable error) {
+                messages.add(String.valueOf(content));
+            }
+        });
+        try {
+            checkMojo.execute();
+            if (shouldFail) {
+                fail();
+            }
+        } catch (MojoFailureException ex) {
+            if (!shouldFail) {
+                fail(ex.getMessage());
+            }
+            assertEquals(
+                "Backwards compatibility check failed! "
+                    + "You can override this by specifying allowBreakingChanges=true",
+                ex.getMessage());
+        }
+        return messages;
+    }
+
+    private MavenProject createProject() {
+        Model m = new Model();
+        String classifier = System.getProperty("os.name").toLowerCase();
+        if ((classifier.contains("mac"))) {
+            classifier = "osx-x86_64";
+        } else if (classifier.contains("nux")) {
+            classifier = "linux-x86_64";
+        } else if (classifier.contains("windows")) {
+            classifier = "windows-x86_64";
+        }
+
+        m.addProperty("os.detected.classifier", classifier);
+        Build b = new Build();
+        b.setDirectory(System.getProperty("user.dir") + testDir);
+        m.setBuild(b);
+        return new MavenProject(m);
+    }
+
+    /**
+     * Write desired test file to proto directory.
+     * @param filename the proto file.
+     */
+    private void writeTestFile(String filename)
+        throws Exception {
+        File testFile = getTestFile(testDir + "proto/test.proto");
+        testFile.getParentFile().mkdirs();
+        Files.copy(getTestFile(testDir + "testProtos/" + filename).toPath(), testFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests that the check can use the proto tree at a git ref as its baseline.
+ */
+public class BaselineRefMojoTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+    final String repoDir = "/target/baseline-repo/";
+    BackwardsCompatibilityCheckMojo myMojo;
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void setUp()
+        throws Exception {
+        // required
+        super.setUp();
+        FileUtils.deleteDirectory(getTestFile(repoDir));
+        writeTestFile("init.proto");
+        git("init", "-q");
+        git("add", ".");
+        git("-c", "user.name=test", "-c", "user.email=test@example.com", "-c", "commit.gpgsign=false",
+            "commit", "-q", "-m", "Baseline");
+        setupMojo();
+    }
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
+        String path = testDir + "protolock-bin";
+        File exeDir = getTestFile(path);
+        File exeFile = getTestFile(path + "/protolock");
+        exeFile.delete();
+        exeDir.delete();
+        FileUtils.deleteDirectory(getTestFile(repoDir));
+        FileUtils.deleteDirectory(getTestFile(testDir + "project-to-test/target/baseline-cache"));
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-baseline"));
+        // The test repository is committed again by each test, often as the same commit
+        FileUtils.deleteDirectory(getTestFile(testDir + "project-to-test/target/protolock-cache"));
+        synchronized (ResidentCache.PASSED_CHECKS) {
+            ResidentCache.PASSED_CHECKS.clear();
+        }
+    }
+
+    /**
+     * Tests that changes are checked against the committed proto tree, without a proto.lock.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testBaselineRef()
+        throws Exception {
+        writeTestFile("good.proto");
+        myMojo.execute();
+        assertFalse(getTestFile(repoDir + "proto/proto.lock").exists());
+        File[] cached = getTestFile(testDir + "project-to-test/target/baseline-cache").listFiles();
+        assertNotNull(cached);
+        assertEquals(1, cached.length);
+        assertTrue(new File(cached[0], "proto.lock").exists());
+        long cachedModified = new File(cached[0], "proto.lock").lastModified();
+
+        writeTestFile("bad.proto");
+        try {
+            myMojo.execute();
+            fail();
+        } catch (MojoFailureException ex) {
+            assertEquals(
+                "Backwards compatibility check failed! "
+                    + "You can override this by specifying allowBreakingChanges=true",
+                ex.getMessage());
+        }
+        assertEquals(cachedModified, new File(cached[0], "proto.lock").lastModified());
+        assertFalse(getTestFile(repoDir + "proto/proto.lock").exists());
+    }
+
+    /**
+     * Tests that the lock of the baseline is not prepared when the check does not need to run again.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testUnchangedCheckSkipsBaseline()
+        throws Exception {
+        writeTestFile("good.proto");
+        myMojo.execute();
+        File baselineCache = getTestFile(testDir + "project-to-test/target/baseline-cache");
+        FileUtils.deleteDirectory(baselineCache);
+
+        myMojo.execute();
+        assertEquals(CheckResult.Status.UNCHANGED, CheckResult.find(myMojo.project).getStatus());
+        assertFalse(baselineCache.exists());
+    }
+
+    /**
+     * Setup backwards compatibility check mojo.
+     */
+    private void setupMojo()
+        throws Exception {
+        File pom = getTestFile(testDir + "project-to-test/pom-baseline-ref.xml");
+        assertNotNull(pom);
+        assertTrue(pom.exists());
+        myMojo = (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+        assertNotNull(myMojo);
+        Model m = new Model();
+        String classifier = System.getProperty("os.name").toLowerCase();
+        if ((classifier.contains("mac"))) {
+            classifier = "osx-x86_64";
+        } else if (classifier.contains("nux")) {
+            classifier = "linux-x86_64";
+        } else if (classifier.contains("windows")) {
+            classifier = "windows-x86_64";
+        }
+
+        m.addProperty("os.detected.classifier", classifier);
+        Build b = new Build();
+        b.setDirectory(System.getProperty("user.dir") + testDir);
+        m.setBuild(b);
+        myMojo.project = new MavenProject(m);
+    }
+
+    /**
+     * Write desired test file to the proto directory of the test repository.
+     * @param filename the proto file.
+     */
+    private void writeTestFile(String filename)
+        throws Exception {
+        File testFile = getTestFile(repoDir + "proto/test.proto");
+        testFile.getParentFile().mkdirs();
+        Files.copy(getTestFile(testDir + "testProtos/" + filename).toPath(), testFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Run git in the test repository.
+     * @param args the git arguments.
+     */
+    private void git(String... args)
+        throws Exception {
+        assertTrue(Git.succeeds(getTestFile(repoDir), args));
+    }
+}
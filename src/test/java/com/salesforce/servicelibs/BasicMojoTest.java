@@ -12,11 +12,16 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.maven.model.Build;
 import org.apache.maven.model.Model;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.testing.SilentLog;
 import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.io.FileUtils;
 import org.junit.Test;
 
 /**
@@ -45,6 +50,7 @@ public class BasicMojoTest
         throws Exception {
         // required
         super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
         String path = testDir + "protolock-bin";
         File exeDir = getTestFile(path);
         File exeFile = getTestFile(path + "/protolock");
@@ -54,6 +60,7 @@ public class BasicMojoTest
         lockFile.delete();
         File testFile = getTestFile(testDir + "proto/test.proto");
         testFile.delete();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-cache"));
     }
 
     /**
@@ -69,6 +76,24 @@ public class BasicMojoTest
         checkExecutableExists();
     }
 
+    /**
+     * Tests that a protolock binary left by an earlier build is replaced when it does not match the bundled binary.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testShouldReplaceStaleExecutable()
+        throws Exception {
+        writeTestFile("init.proto");
+        myMojo.execute();
+        File exeFile = getTestFile(testDir + "protolock-bin").listFiles()[0];
+        final long size = exeFile.length();
+        Files.write(exeFile.toPath(), new byte[] {0});
+        getTestFile(testDir + "proto/proto.lock").delete();
+        myMojo.execute();
+        checkLockFileExists();
+        assertEquals(size, exeFile.length());
+    }
+
     /**
      * Tests that backwards compatibility check fails when breaking change is made.
      * @throws Exception if any.
@@ -125,6 +150,35 @@ public class BasicMojoTest
         runMojo(false);
     }
 
+    /**
+     * Tests that the check is skipped when proto files only change in comments and formatting.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testShouldSkipCompatibilityCheckDocumentationChange()
+        throws Exception {
+        writeTestFile("init.proto");
+        myMojo.execute();
+        writeTestFile("good.proto");
+        runMojo(false);
+        runMojo(false);
+
+        List<String> messages = new ArrayList<>();
+        myMojo.setLog(new SilentLog() {
+            @Override
+            public void info(CharSequence content) {
+                messages.add(content.toString());
+            }
+        });
+        writeTestFile("documented.proto");
+        runMojo(false);
+        assertTrue(messages.contains(
+            "No API-relevant change in the proto files or proto.lock since the last passing check."));
+
+        writeTestFile("bad.proto");
+        runMojo(true);
+    }
+
     /**
      * Setup backwards compatibility check mojo.
      */
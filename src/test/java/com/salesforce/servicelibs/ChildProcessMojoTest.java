@@ -0,0 +1,188 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.Os;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests that protolock and its plugins are run with the configured process profile.
+ */
+public class ChildProcessMojoTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+    BackwardsCompatibilityCheckMojo myMojo;
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void setUp()
+        throws Exception {
+        // required
+        super.setUp();
+        setupMojo();
+    }
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
+        String path = testDir + "protolock-bin";
+        File exeDir = getTestFile(path);
+        File exeFile = getTestFile(path + "/protolock");
+        exeFile.delete();
+        exeDir.delete();
+        File lockFile = getTestFile(testDir + "proto/proto.lock");
+        lockFile.delete();
+        File testFile = getTestFile(testDir + "proto/test.proto");
+        testFile.delete();
+        getTestFile(testDir + "plugins/environment.log").delete();
+        FileUtils.deleteDirectory(getTestFile(testDir + "project-to-test/target/protolock-cache"));
+    }
+
+    /**
+     * Tests that plugins are run with the configured environment and nice level.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testChildProcessProfile()
+        throws Exception {
+        if (Os.isFamily(Os.FAMILY_WINDOWS)) {
+            // The test plugin is a shell script
+            return;
+        }
+        writeTestFile("init.proto");
+        myMojo.execute();
+        writeTestFile("good.proto");
+        myMojo.execute();
+
+        List<String> environment = Files.readAllLines(getTestFile(testDir + "plugins/environment.log").toPath());
+        assertTrue(environment.contains("GOMAXPROCS=2"));
+        assertTrue(environment.contains("GOGC=50"));
+        assertTrue(environment.contains("NICE=5"));
+    }
+
+    /**
+     * Tests that automatic limits share the machine between the modules built in parallel.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testAutomaticLimits()
+        throws Exception {
+        ChildProcessProfile profile = ChildProcessProfile.of(null, "auto", "auto", 0, 2);
+        String cpus = String.valueOf(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        assertEquals(cpus, profile.environment(new HashMap<>()).get("GOMAXPROCS"));
+        if (new File("/proc/meminfo").exists()) {
+            assertTrue(profile.environment(new HashMap<>()).get("GOMEMLIMIT").matches("[1-9][0-9]*MiB"));
+        }
+    }
+
+    /**
+     * Tests that the memory limit of a container's cgroup is used rather than the memory of the host.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testCgroupMemoryLimit()
+        throws Exception {
+        Path root = Files.createTempDirectory("cgroup");
+        try {
+            Path meminfo = root.resolve("meminfo");
+            Files.write(meminfo, "MemTotal:       16777216 kB\n".getBytes(StandardCharsets.UTF_8));
+            Path cgroup = root.resolve("cgroup");
+            Files.createDirectories(cgroup.resolve("memory"));
+            assertEquals(16L << 30, ChildProcessProfile.physicalMemory(cgroup, meminfo));
+
+            // cgroup v1, without a limit and with one
+            Path limitInBytes = cgroup.resolve("memory").resolve("memory.limit_in_bytes");
+            Files.write(limitInBytes, "9223372036854771712\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(16L << 30, ChildProcessProfile.physicalMemory(cgroup, meminfo));
+            Files.write(limitInBytes, "2147483648\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(2L << 30, ChildProcessProfile.physicalMemory(cgroup, meminfo));
+
+            // cgroup v2, without a limit and with one
+            Files.delete(limitInBytes);
+            Path memoryMax = cgroup.resolve("memory.max");
+            Files.write(memoryMax, "max\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(16L << 30, ChildProcessProfile.physicalMemory(cgroup, meminfo));
+            Files.write(memoryMax, "1073741824\n".getBytes(StandardCharsets.UTF_8));
+            assertEquals(1L << 30, ChildProcessProfile.physicalMemory(cgroup, meminfo));
+        } finally {
+            FileUtils.deleteDirectory(root.toFile());
+        }
+    }
+
+    /**
+     * Setup backwards compatibility check mojo.
+     */
+    private void setupMojo()
+        throws Exception {
+        File pom = getTestFile(testDir + "project-to-test/pom-child-process.xml");
+        assertNotNull(pom);
+        assertTrue(pom.exists());
+        myMojo = (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+        assertNotNull(myMojo);
+        Model m = new Model();
+        String classifier = System.getProperty("os.name").toLowerCase();
+        if ((classifier.contains("mac"))) {
+            classifier = "osx-x86_64";
+        } else if (classifier.contains("nux")) {
+            classifier = "linux-x86_64";
+        } else if (classifier.contains("windows")) {
+            classifier = "windows-x86_64";
+        }
+
+        m.addProperty("os.detected.classifier", classifier);
+        Build b = new Build();
+        b.setDirectory(System.getProperty("user.dir") + testDir);
+        m.setBuild(b);
+        myMojo.project = new MavenProject(m);
+    }
+
+    /**
+     * Write desired test file to proto directory.
+     * @param filename the proto file.
+     */
+    private void writeTestFile(String filename)
+        throws Exception {
+
+        File testFile = getTestFile(testDir + "proto/test.proto");
+        if (testFile.exists()) {
+            testFile.delete();
+        }
+        testFile.getParentFile().mkdirs();
+        testFile.createNewFile();
+        File protoFile = getTestFile(testDir + "testProtos/" + filename);
+        try (InputStream is = new FileInputStream(protoFile);
+            OutputStream os = new FileOutputStream(testFile)) {
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = is.read(buffer)) > 0) {
+                os.write(buffer, 0, length);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests that check results are kept and reported without checking again.
+ */
+public class CompatibilityReportMojoTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
+        String path = testDir + "protolock-bin";
+        File exeDir = getTestFile(path);
+        File exeFile = getTestFile(path + "/protolock");
+        exeFile.delete();
+        exeDir.delete();
+        getTestFile(testDir + "proto/proto.lock").delete();
+        getTestFile(testDir + "proto/test.proto").delete();
+        FileUtils.deleteDirectory(getTestFile(testDir + "project-to-test/target/compatibility-report"));
+    }
+
+    /**
+     * Tests that a failed check is reported from its stored result.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testReportFromStoredResult()
+        throws Exception {
+        File pom = getTestFile(testDir + "project-to-test/pom.xml");
+        BackwardsCompatibilityCheckMojo checkMojo =
+            (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+        checkMojo.project = createProject();
+        writeTestFile("init.proto");
+        checkMojo.execute();
+        assertEquals(CheckResult.Status.INITIALIZED,
+            CheckResult.find(checkMojo.project).getStatus());
+
+        writeTestFile("bad.proto");
+        try {
+            checkMojo.execute();
+            fail();
+        } catch (MojoFailureException ex) {
+            // Expected
+        }
+        CheckResult result = CheckResult.find(checkMojo.project);
+        assertEquals(CheckResult.Status.FAILED, result.getStatus());
+        assertFalse(result.getWarnings().isEmpty());
+        assertNotNull(result.getBaselineChecksum());
+
+        // A project from a later build only has the result file
+        CompatibilityReportMojo reportMojo = (CompatibilityReportMojo) lookupConfiguredMojo(
+            getTestFile(testDir + "project-to-test/pom-compatibility-report.xml"), "compatibility-report");
+        setVariableValueToObject(reportMojo, "reactorProjects", Collections.singletonList(createProject()));
+        reportMojo.execute();
+
+        File reportDir = getTestFile(testDir + "project-to-test/target/compatibility-report");
+        JsonObject report = JsonParser.parseString(new String(
+            Files.readAllBytes(new File(reportDir, "compatibility-report.json").toPath()), StandardCharsets.UTF_8))
+            .getAsJsonObject();
+        assertEquals(1, report.getAsJsonObject("summary").get("FAILED").getAsInt());
+        assertEquals(1, report.getAsJsonArray("modules").size());
+        String html = new String(Files.readAllBytes(new File(reportDir, "compatibility-report.html").toPath()),
+            StandardCharsets.UTF_8);
+        assertTrue(html.contains("FAILED"));
+        assertTrue(html.contains(result.getWarnings().get(0).getFilepath()));
+    }
+
+    private MavenProject createProject() {
+        Model m = new Model();
+        String classifier = System.getProperty("os.name").toLowerCase();
+        if ((classifier.contains("mac"))) {
+            classifier = "osx-x86_64";
+        } else if (classifier.contains("nux")) {
+            classifier = "linux-x86_64";
+        } else if (classifier.contains("windows")) {
+            classifier = "windows-x86_64";
+        }
+
+        m.addProperty("os.detected.classifier", classifier);
+        Build b = new Build();
+        b.setDirectory(System.getProperty("user.dir") + testDir);
+        m.setBuild(b);
+        return new MavenProject(m);
+    }
+
+    /**
+     * Write desired test file to proto directory.
+     * @param filename the proto file.
+     */
+    private void writeTestFile(String filename)
+        throws Exception {
+        File testFile = getTestFile(testDir + "proto/test.proto");
+        testFile.getParentFile().mkdirs();
+        Files.copy(getTestFile(testDir + "testProtos/" + filename).toPath(), testFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+}
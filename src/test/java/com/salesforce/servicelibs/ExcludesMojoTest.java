@@ -0,0 +1,260 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests that excluded proto files are left out of the check, and that their definitions in the lock are kept.
+ */
+public class ExcludesMojoTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+    BackwardsCompatibilityCheckMojo myMojo;
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void setUp()
+        throws Exception {
+        // required
+        super.setUp();
+        setupMojo();
+    }
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-cache"));
+        String path = testDir + "protolock-bin";
+        File exeDir = getTestFile(path);
+        File exeFile = getTestFile(path + "/protolock");
+        exeFile.delete();
+        exeDir.delete();
+        File lockFile = getTestFile(testDir + "proto/proto.lock");
+        lockFile.delete();
+        File testFile = getTestFile(testDir + "proto/test.proto");
+        testFile.delete();
+        FileUtils.deleteDirectory(getTestFile(testDir + "proto/vendor"));
+    }
+
+    /**
+     * Tests that breaking changes to excluded proto files are ignored.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testShouldIgnoreBreakingChangeInExcludedFile()
+        throws Exception {
+        writeTestFile("init.proto", "test.proto");
+        writeTestFile("init.proto", "vendor/vendor.proto");
+        myMojo.execute();
+        writeTestFile("bad.proto", "vendor/vendor.proto");
+        runMojo(false);
+        assertFalse(readLockFile().contains("vendor"));
+    }
+
+    /**
+     * Tests that excluded proto files already in proto.lock are kept in it, and proto.lock is not rewritten without
+     * them while it is checked.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testShouldKeepExcludedFilesInLock()
+        throws Exception {
+        writeTestFile("init.proto", "vendor/vendor.proto");
+        writeTestFile("bad.proto", "test.proto");
+        File lockFile = getTestFile(testDir + "proto/proto.lock");
+        File vendorLock = getTestFile(testDir + "testProtos/vendor.lock");
+        Files.copy(vendorLock.toPath(), lockFile.toPath());
+        try {
+            myMojo.execute();
+            fail();
+        } catch (MojoFailureException expected) {
+            // The breaking change to test.proto is still found
+        }
+        assertEquals(new String(Files.readAllBytes(vendorLock.toPath()), StandardCharsets.UTF_8), readLockFile());
+
+        writeTestFile("init.proto", "test.proto");
+        myMojo.execute();
+        assertTrue(readLockFile().contains("vendor"));
+        assertTrue(readLockFile().contains("test.proto"));
+    }
+
+    /**
+     * Tests that a check without excludes does not merge the excluded definitions of an earlier check back into
+     * proto.lock.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testShouldNotReuseExcludedDefinitionsOfEarlierCheck()
+        throws Exception {
+        writeTestFile("init.proto", "vendor/vendor.proto");
+        writeTestFile("init.proto", "test.proto");
+        Files.copy(getTestFile(testDir + "testProtos/vendor.lock").toPath(),
+            getTestFile(testDir + "proto/proto.lock").toPath());
+        myMojo.execute();
+
+        setVariableValueToObject(myMojo, "excludes", null);
+        myMojo.execute();
+        String lock = readLockFile();
+        assertEquals(lock.indexOf("vendor:/:vendor.proto"), lock.lastIndexOf("vendor:/:vendor.proto"));
+    }
+
+    /**
+     * Tests that protolock runs are recorded as JFR events, counting only the proto files that are checked.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testShouldRecordCheckedProtoFilesInEvents()
+        throws Exception {
+        try {
+            Class.forName("jdk.jfr.Recording");
+        } catch (ClassNotFoundException e) {
+            // JFR is not available on this JVM
+            return;
+        }
+        writeTestFile("init.proto", "test.proto");
+        writeTestFile("init.proto", "vendor/vendor.proto");
+        List<RecordedEvent> events = recordProtolockEvents();
+        assertFalse(events.isEmpty());
+        for (RecordedEvent event : events) {
+            assertEquals(myMojo.project.getArtifactId(), event.getString("module"));
+            assertEquals(1, event.getInt("protoCount"));
+            assertEquals(0, event.getInt("exitCode"));
+        }
+    }
+
+    /**
+     * Runs the check in a JFR recording and reads back the protolock events.
+     */
+    private List<RecordedEvent> recordProtolockEvents()
+        throws Exception {
+        File recordingFile = File.createTempFile("protolock", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.salesforce.servicelibs.ProtolockExecution");
+            recording.start();
+            myMojo.execute();
+            recording.stop();
+            recording.dump(recordingFile.toPath());
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile.toPath())) {
+                if (event.getEventType().getName().equals("com.salesforce.servicelibs.ProtolockExecution")) {
+                    events.add(event);
+                }
+            }
+            return events;
+        } finally {
+            recordingFile.delete();
+        }
+    }
+
+    /**
+     * Setup backwards compatibility check mojo.
+     */
+    private void setupMojo()
+        throws Exception {
+        File pom = getTestFile(testDir + "project-to-test/pom-excludes.xml");
+        assertNotNull(pom);
+        assertTrue(pom.exists());
+        myMojo = (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+        assertNotNull(myMojo);
+        Model m = new Model();
+        String classifier = System.getProperty("os.name").toLowerCase();
+        if ((classifier.contains("mac"))) {
+            classifier = "osx-x86_64";
+        } else if (classifier.contains("nux")) {
+            classifier = "linux-x86_64";
+        } else if (classifier.contains("windows")) {
+            classifier = "windows-x86_64";
+        }
+
+        m.addProperty("os.detected.classifier", classifier);
+        Build b = new Build();
+        b.setDirectory(System.getProperty("user.dir") + testDir);
+        m.setBuild(b);
+        myMojo.project = new MavenProject(m);
+    }
+
+    /**
+     * Write desired test file to proto directory.
+     * @param filename the proto file.
+     * @param target the path to write it to, relative to the proto directory.
+     */
+    private void writeTestFile(String filename, String target)
+        throws Exception {
+
+        File testFile = getTestFile(testDir + "proto/" + target);
+        if (testFile.exists()) {
+            testFile.delete();
+        }
+        testFile.getParentFile().mkdirs();
+        testFile.createNewFile();
+        File protoFile = getTestFile(testDir + "testProtos/" + filename);
+        try (InputStream is = new FileInputStream(protoFile);
+            OutputStream os = new FileOutputStream(testFile)) {
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = is.read(buffer)) > 0) {
+                os.write(buffer, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Run mojo with expected result.
+     * @param shouldFail backwards compatibility check should pass or fail.
+     */
+    private void runMojo(boolean shouldFail)
+        throws MojoExecutionException {
+        try {
+            myMojo.execute();
+            if (shouldFail) {
+                fail();
+            }
+        } catch (MojoFailureException ex) {
+            if (shouldFail) {
+                assertEquals("Backwards compatibility check failed!", ex.getMessage());
+            } else {
+                fail();
+            }
+        }
+    }
+
+    /**
+     * Read the proto.lock file.
+     */
+    private String readLockFile()
+        throws Exception {
+        File lockFile = getTestFile(testDir + "proto/proto.lock");
+        return new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8);
+    }
+}
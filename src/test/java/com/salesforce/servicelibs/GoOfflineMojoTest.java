@@ -0,0 +1,219 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import static java.util.Collections.emptyList;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.maven.artifact.repository.MavenArtifactRepository;
+import org.apache.maven.artifact.repository.layout.DefaultRepositoryLayout;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.internal.impl.SimpleLocalRepositoryManagerFactory;
+import org.eclipse.aether.repository.LocalRepository;
+import org.junit.Test;
+
+/**
+ * Tests the go-offline mojo.
+ */
+public class GoOfflineMojoTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+    GoOfflineMojo myMojo;
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void setUp()
+        throws Exception {
+        // required
+        super.setUp();
+        setupMojo();
+    }
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
+        String path = testDir + "protolock-bin";
+        File exeDir = getTestFile(path);
+        File exeFile = getTestFile(path + "/protolock");
+        exeFile.delete();
+        getTestFile(path + "/" + AbstractProtolockMojo.PROTOLOCK_MANIFEST).delete();
+        exeDir.delete();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-repository"));
+    }
+
+    /**
+     * Tests that the protolock binary is extracted, and replaced when it does not match the bundled binary.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testProtolockBinaryIsPrefetchedAndVerified()
+        throws Exception {
+        myMojo.execute();
+        File exeFile = getExecutable();
+        assertTrue(exeFile.exists());
+        long size = exeFile.length();
+
+        Files.write(exeFile.toPath(), new byte[] {0});
+        myMojo.execute();
+        assertEquals(size, exeFile.length());
+    }
+
+    /**
+     * Tests that a protolock binary configured as an artifact is resolved from the local repository, and that an
+     * executable left by an earlier build is replaced when the artifact changes.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testProtolockArtifactIsResolvedAndReplaced()
+        throws Exception {
+        useLocalRepository();
+        installArtifact("1.0", "protolock 1.0");
+        installArtifact("2.0", "protolock 2.0");
+
+        myMojo.protolockArtifact = "com.example:protolock:1.0:exe:test";
+        myMojo.execute();
+        File exeFile = getExecutable();
+        assertEquals("protolock 1.0", new String(Files.readAllBytes(exeFile.toPath()), StandardCharsets.UTF_8));
+
+        myMojo.protolockArtifact = "com.example:protolock:2.0:exe:test";
+        myMojo.execute();
+        assertEquals("protolock 2.0", new String(Files.readAllBytes(exeFile.toPath()), StandardCharsets.UTF_8));
+
+        // Going back to the bundled binary replaces the artifact too
+        myMojo.protolockArtifact = null;
+        myMojo.execute();
+        assertTrue(exeFile.length() > "protolock 2.0".length());
+    }
+
+    /**
+     * Tests that the check uses a protolock artifact prefetched by go-offline without resolving it again, unless the
+     * executable changed since.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testPrefetchedProtolockArtifactIsNotResolvedAgain()
+        throws Exception {
+        useLocalRepository();
+        installArtifact("1.0", "protolock 1.0");
+        myMojo.protolockArtifact = "com.example:protolock:1.0:exe:test";
+        myMojo.execute();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-repository"));
+
+        File exeFile = getExecutable();
+        assertEquals(exeFile.toPath(), myMojo.extractProtolock(classifier(), false));
+        assertEquals("protolock 1.0", new String(Files.readAllBytes(exeFile.toPath()), StandardCharsets.UTF_8));
+
+        Files.write(exeFile.toPath(), new byte[] {0});
+        try {
+            myMojo.extractProtolock(classifier(), false);
+            fail();
+        } catch (MojoExecutionException expected) {
+            // The changed executable is resolved again, from a repository that no longer has it
+        }
+    }
+
+    /**
+     * Setup go-offline mojo.
+     */
+    private void setupMojo()
+        throws Exception {
+        File pom = getTestFile(testDir + "project-to-test/pom-go-offline.xml");
+        assertNotNull(pom);
+        assertTrue(pom.exists());
+        myMojo = (GoOfflineMojo) lookupConfiguredMojo(pom, "go-offline");
+        assertNotNull(myMojo);
+        Model m = new Model();
+        m.addProperty("os.detected.classifier", classifier());
+        Build b = new Build();
+        b.setDirectory(System.getProperty("user.dir") + testDir);
+        m.setBuild(b);
+        myMojo.project = new MavenProject(m);
+    }
+
+    /**
+     * Get the OS classifier of the protolock binary.
+     */
+    private String classifier() {
+        String classifier = System.getProperty("os.name").toLowerCase();
+        if ((classifier.contains("mac"))) {
+            classifier = "osx-x86_64";
+        } else if (classifier.contains("nux")) {
+            classifier = "linux-x86_64";
+        } else if (classifier.contains("windows")) {
+            classifier = "windows-x86_64";
+        }
+        return classifier;
+    }
+
+    /**
+     * Resolve artifacts offline, from a local repository in the test directory.
+     */
+    private void useLocalRepository()
+        throws Exception {
+        File repository = getTestFile(testDir + "protolock-repository");
+        MavenSession session = newMavenSession();
+        session.getRequest().setOffline(true);
+        DefaultRepositorySystemSession repositorySession =
+            (DefaultRepositorySystemSession) session.getRepositorySession();
+        repositorySession.setOffline(true);
+        repositorySession.setLocalRepositoryManager(new SimpleLocalRepositoryManagerFactory()
+            .newInstance(repositorySession, new LocalRepository(repository)));
+        myMojo.session = session;
+        myMojo.localRepository = new MavenArtifactRepository("local", repository.toURI().toString(),
+            new DefaultRepositoryLayout(), null, null);
+        myMojo.remoteRepositories = emptyList();
+        myMojo.project.setArtifact(myMojo.repositorySystem.createArtifact("com.salesforce.servicelibs.unit",
+            "project-to-test", "1.0-SNAPSHOT", "pom"));
+    }
+
+    /**
+     * Install a protolock artifact into the local repository.
+     * @param version the version of the artifact.
+     * @param content the content of the binary.
+     */
+    private void installArtifact(String version, String content)
+        throws Exception {
+        Path file = getTestFile(testDir + "protolock-repository/com/example/protolock/" + version
+            + "/protolock-" + version + "-test.exe").toPath();
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        String pom = "<project><modelVersion>4.0.0</modelVersion><groupId>com.example</groupId>"
+            + "<artifactId>protolock</artifactId><version>" + version + "</version></project>";
+        Files.write(file.resolveSibling("protolock-" + version + ".pom"), pom.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get the extracted protolock executable.
+     */
+    private File getExecutable() {
+        String os = System.getProperty("os.name").toLowerCase();
+
+        String protolockExtension = "";
+        if (os.contains("windows")) {
+            protolockExtension = ".exe";
+        }
+
+        return getTestFile(testDir + "protolock-bin/protolock" + protolockExtension);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests the structural summary of proto.lock changes.
+ */
+public class LockDiffMojoTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+    final String repoDir = "target/lock-diff-test";
+    final String reportDir = testDir + "project-to-test/target/protolock-reports/";
+    LockDiffMojo myMojo;
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void setUp()
+        throws Exception {
+        // required
+        super.setUp();
+        FileUtils.deleteDirectory(getTestFile(repoDir));
+        File pom = getTestFile(testDir + "project-to-test/pom-lock-diff.xml");
+        assertNotNull(pom);
+        assertTrue(pom.exists());
+        myMojo = (LockDiffMojo) lookupConfiguredMojo(pom, "lock-diff");
+        assertNotNull(myMojo);
+    }
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(repoDir));
+    }
+
+    /**
+     * Tests that removed files and changed fields are reported.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testLockDiff()
+        throws Exception {
+        File repo = getTestFile(repoDir);
+        Path lockFile = repo.toPath().resolve("proto.lock");
+        repo.mkdirs();
+        Files.copy(getTestFile(testDir + "testProtos/vendor.lock").toPath(), lockFile);
+        git(repo, "init", "-q");
+        git(repo, "add", "proto.lock");
+        git(repo, "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "-q", "-m", "lock");
+
+        LockFiles.filter(lockFile, lockFile, path -> !path.startsWith("vendor/"));
+        String lock = new String(Files.readAllBytes(lockFile), StandardCharsets.UTF_8);
+        Files.write(lockFile, lock.replace("\"requestField3\"", "\"requestField4\"").getBytes(StandardCharsets.UTF_8));
+
+        myMojo.execute();
+        String markdown = new String(Files.readAllBytes(getTestFile(reportDir + "lock-diff.md").toPath()),
+            StandardCharsets.UTF_8);
+        assertTrue(markdown.contains("2 proto files changed since HEAD: 0 added, 1 removed, 1 modified."));
+        assertTrue(markdown.contains("#### `vendor/vendor.proto` (removed)"));
+        assertTrue(markdown.contains("- Added field `SampleRequest.requestField4`: `string = 3`"));
+        assertTrue(markdown.contains("- Removed field `SampleRequest.requestField3`: `string = 3`"));
+        assertTrue(getTestFile(reportDir + "lock-diff.json").exists());
+    }
+
+    private static void git(File directory, String... args)
+        throws Exception {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy(args, 0, command, 1, args.length);
+        Process git = new ProcessBuilder(command).directory(directory).inheritIO().start();
+        assertEquals(0, git.waitFor());
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.junit.Test;
+
+/**
+ * Tests that checks sharing a lock directory are coordinated.
+ */
+public class LockDirCoordinatorTest
+    extends BetterAbstractMojoTestCase {
+
+    /**
+     * Tests that an identical check waits for the one already running and reuses its result.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testIdenticalChecksRunOnce()
+        throws Exception {
+        Path lockDir = getTestFile("target/coordinated-lock-dir").toPath();
+        CountDownLatch followerWaiting = new CountDownLatch(1);
+        AtomicInteger checks = new AtomicInteger();
+        CheckResult leaderResult = new CheckResult("leader");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> leader = executor.submit(() -> LockDirCoordinator.coordinate(lockDir, "config", leaderResult,
+                new SilentLog(), () -> {
+                    checks.incrementAndGet();
+                    try {
+                        assertTrue(followerWaiting.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    leaderResult.finish(CheckResult.Status.FAILED, "Failed", Collections.emptyList());
+                    throw new MojoFailureException("Failed");
+                }));
+
+            // Wait for the leader to start before joining it
+            while (checks.get() == 0) {
+                Thread.sleep(10);
+            }
+            CheckResult reused = LockDirCoordinator.coordinate(lockDir, "config", new CheckResult("follower"),
+                new SilentLog() {
+                    @Override
+                    public void info(CharSequence content) {
+                        followerWaiting.countDown();
+                    }
+                }, checks::incrementAndGet);
+            assertSame(leaderResult, reused);
+            assertEquals(1, checks.get());
+            try {
+                leader.get();
+                fail();
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof MojoFailureException);
+            }
+
+            // A check with another configuration runs on its own
+            assertNull(LockDirCoordinator.coordinate(lockDir, "other", new CheckResult("other"), new SilentLog(),
+                checks::incrementAndGet));
+            assertEquals(2, checks.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
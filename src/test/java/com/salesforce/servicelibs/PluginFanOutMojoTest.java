@@ -0,0 +1,173 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.Os;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests that configured protolock plugins are run concurrently, with a timeout.
+ */
+public class PluginFanOutMojoTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+    BackwardsCompatibilityCheckMojo myMojo;
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void setUp()
+        throws Exception {
+        // required
+        super.setUp();
+        setupMojo();
+    }
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
+        String path = testDir + "protolock-bin";
+        File exeDir = getTestFile(path);
+        File exeFile = getTestFile(path + "/protolock");
+        exeFile.delete();
+        exeDir.delete();
+        File lockFile = getTestFile(testDir + "proto/proto.lock");
+        lockFile.delete();
+        File testFile = getTestFile(testDir + "proto/test.proto");
+        testFile.delete();
+        getTestFile(testDir + "plugins/invocations.log").delete();
+        FileUtils.deleteDirectory(getTestFile(testDir + "project-to-test/target/protolock-cache"));
+    }
+
+    /**
+     * Tests that plugins run concurrently and that a plugin which does not answer is killed.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testPluginTimeout()
+        throws Exception {
+        if (Os.isFamily(Os.FAMILY_WINDOWS)) {
+            // The test plugins are shell scripts
+            return;
+        }
+        writeTestFile("init.proto");
+        myMojo.execute();
+
+        long start = System.nanoTime();
+        try {
+            myMojo.execute();
+            fail();
+        } catch (MojoExecutionException ex) {
+            assertEquals("Protolock plugin hanging-plugin timed out after 1 seconds", ex.getMessage());
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(20));
+        assertEquals(1, countInvocations());
+    }
+
+    /**
+     * Tests that a plugin which exits with an error fails the check, even if its answer could be read.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testPluginExitCode()
+        throws Exception {
+        if (Os.isFamily(Os.FAMILY_WINDOWS)) {
+            // The test plugins are shell scripts
+            return;
+        }
+        writeTestFile("init.proto");
+        myMojo.execute();
+
+        myMojo.plugins = Collections.singletonList("failing-plugin");
+        try {
+            myMojo.execute();
+            fail();
+        } catch (MojoExecutionException ex) {
+            assertEquals("Protolock plugin failing-plugin exited with code 3", ex.getMessage());
+        }
+    }
+
+    /**
+     * Setup backwards compatibility check mojo.
+     */
+    private void setupMojo()
+        throws Exception {
+        File pom = getTestFile(testDir + "project-to-test/pom-plugin-fan-out.xml");
+        assertNotNull(pom);
+        assertTrue(pom.exists());
+        myMojo = (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+        assertNotNull(myMojo);
+        Model m = new Model();
+        String classifier = System.getProperty("os.name").toLowerCase();
+        if ((classifier.contains("mac"))) {
+            classifier = "osx-x86_64";
+        } else if (classifier.contains("nux")) {
+            classifier = "linux-x86_64";
+        } else if (classifier.contains("windows")) {
+            classifier = "windows-x86_64";
+        }
+
+        m.addProperty("os.detected.classifier", classifier);
+        Build b = new Build();
+        b.setDirectory(System.getProperty("user.dir") + testDir);
+        m.setBuild(b);
+        myMojo.project = new MavenProject(m);
+    }
+
+    /**
+     * Write desired test file to proto directory.
+     * @param filename the proto file.
+     */
+    private void writeTestFile(String filename)
+        throws Exception {
+
+        File testFile = getTestFile(testDir + "proto/test.proto");
+        if (testFile.exists()) {
+            testFile.delete();
+        }
+        testFile.getParentFile().mkdirs();
+        testFile.createNewFile();
+        File protoFile = getTestFile(testDir + "testProtos/" + filename);
+        try (InputStream is = new FileInputStream(protoFile);
+            OutputStream os = new FileOutputStream(testFile)) {
+            byte[] buffer = new byte[1024];
+            int length;
+            while ((length = is.read(buffer)) > 0) {
+                os.write(buffer, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Count how many times the test plugin has been run.
+     */
+    private int countInvocations()
+        throws Exception {
+        File log = getTestFile(testDir + "plugins/invocations.log");
+        return log.exists() ? Files.readAllLines(log.toPath()).size() : 0;
+    }
+}
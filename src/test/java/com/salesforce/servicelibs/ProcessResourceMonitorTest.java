@@ -0,0 +1,62 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import org.apache.maven.shared.utils.Os;
+import org.junit.Test;
+
+/**
+ * Tests the measurement of child processes.
+ */
+public class ProcessResourceMonitorTest
+    extends BetterAbstractMojoTestCase {
+
+    /**
+     * Tests that a process is sampled until it is about to exit, and not after the monitor is stopped.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testSampling()
+        throws Exception {
+        if (Os.isFamily(Os.FAMILY_WINDOWS)) {
+            // The test process is a shell command
+            return;
+        }
+        Process process = new ProcessBuilder("sh", "-c", "sleep 0.2").start();
+        ProcessResourceMonitor monitor = ProcessResourceMonitor.start("sleep", "sleep 0.2", process);
+        monitor.sampleBeforeExit();
+        process.waitFor();
+        ProcessResourceUsage usage = monitor.stop();
+        assertFalse(monitor.isSampling());
+        assertEquals("sleep", usage.getName());
+        assertTrue(usage.getWallMillis() >= 0);
+        if (new File("/proc/self/stat").exists()) {
+            assertTrue(usage.getPeakRssKb() > 0);
+            assertTrue(usage.getUserMillis() >= 0);
+        }
+    }
+
+    /**
+     * Tests that stopping the monitor of a process that failed stops the sampling.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testStopAfterKill()
+        throws Exception {
+        if (Os.isFamily(Os.FAMILY_WINDOWS)) {
+            // The test process is a shell command
+            return;
+        }
+        Process process = new ProcessBuilder("sh", "-c", "sleep 30").start();
+        ProcessResourceMonitor monitor = ProcessResourceMonitor.start("sleep", "sleep 30", process);
+        process.destroyForcibly().waitFor();
+        monitor.stop();
+        assertFalse(monitor.isSampling());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.Gson;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.maven.plugin.testing.SilentLog;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests how protolock output is logged and written.
+ */
+public class ProtolockOutputTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+    final List<String> messages = new ArrayList<>();
+    final SilentLog log = new SilentLog() {
+        @Override
+        public void info(CharSequence content) {
+            messages.add(content.toString());
+        }
+    };
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-output"));
+    }
+
+    /**
+     * Tests that every line is logged when no limit is set.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testUnbounded()
+        throws Exception {
+        try (ProtolockOutput output = new ProtolockOutput(log)) {
+            output.command("protolock status");
+            output.line("first");
+            output.line("second");
+        }
+        assertEquals(Arrays.asList("protolock status", "first", "second"), messages);
+    }
+
+    /**
+     * Tests that only the first and last lines are logged when a limit is set, and that every line is written to the
+     * output file.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testBoundedWithTail()
+        throws Exception {
+        File outputFile = getTestFile(testDir + "protolock-output/protolock.log");
+        try (ProtolockOutput output = new ProtolockOutput(log, 2, outputFile.toPath())) {
+            output.command("protolock status");
+            for (int i = 1; i <= 3000; i++) {
+                output.line("line " + i);
+            }
+        }
+        assertEquals(Arrays.asList("protolock status", "line 1", "line 2", "... 2996 lines omitted ...",
+            "line 2999", "line 3000", "Full protolock output written to " + outputFile.toPath()), messages);
+
+        List<String> written = Files.readAllLines(outputFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(3001, written.size());
+        assertEquals("protolock status", written.get(0));
+        assertEquals("line 3000", written.get(3000));
+    }
+
+    /**
+     * Tests that nothing is omitted or counted when the output fits within the limit.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testBoundedWithinLimit()
+        throws Exception {
+        File outputFile = getTestFile(testDir + "protolock-output/protolock.log");
+        try (ProtolockOutput output = new ProtolockOutput(log, 2, outputFile.toPath())) {
+            output.line("CONFLICT: Field removed [test.proto]");
+            output.line("CONFLICT: Field renamed [test.proto]");
+        }
+        assertEquals(Arrays.asList("CONFLICT: Field removed [test.proto]", "CONFLICT: Field renamed [test.proto]"),
+            messages);
+    }
+
+    /**
+     * Tests that conflicts beyond the limit are counted per file and per rule, with the most frequent first.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testConflictCounts()
+        throws Exception {
+        File outputFile = getTestFile(testDir + "protolock-output/protolock.log");
+        try (ProtolockOutput output = new ProtolockOutput(log, 1, outputFile.toPath())) {
+            output.line("CONFLICT: Field removed [a.proto]");
+            output.line("CONFLICT: Field removed [b.proto]");
+            output.line("CONFLICT: Field renamed [b.proto]");
+            output.warning(new Gson().fromJson(
+                "{\"filepath\":\"c.proto\",\"message\":\"Bad name\",\"rulename\":\"naming\"}", ProtolockWarning.class));
+        }
+        assertEquals(Arrays.asList("CONFLICT: Field removed [a.proto]", "... 2 lines omitted ...",
+            "CONFLICT: Bad name [c.proto]",
+            "Conflicts by file:", "  b.proto: 2", "  ... and 2 more",
+            "Conflicts by rule:", "  naming: 1",
+            "Full protolock output written to " + outputFile.toPath()), messages);
+    }
+}
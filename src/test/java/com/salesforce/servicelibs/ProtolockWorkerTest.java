@@ -0,0 +1,265 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.maven.shared.utils.Os;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests the persistent worker.
+ */
+public class ProtolockWorkerTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
+        String path = testDir + "protolock-bin";
+        File exeDir = getTestFile(path);
+        File exeFile = getTestFile(path + "/protolock");
+        exeFile.delete();
+        exeDir.delete();
+        File lockFile = getTestFile(testDir + "proto/proto.lock");
+        lockFile.delete();
+        File testFile = getTestFile(testDir + "proto/test.proto");
+        testFile.delete();
+        FileUtils.deleteDirectory(getTestFile(testDir + "other-proto"));
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-cache"));
+    }
+
+    /**
+     * Tests that work requests are checked and answered in order.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testWorkRequests()
+        throws Exception {
+        ProtolockWorker worker = new ProtolockWorker();
+        writeTestFile("init.proto");
+        JsonObject response = serve(worker, request(0));
+        assertEquals(0, response.get("exitCode").getAsInt());
+        assertTrue(getTestFile(testDir + "proto/proto.lock").exists());
+
+        writeTestFile("bad.proto");
+        response = serve(worker, request(7));
+        assertEquals(7, response.get("requestId").getAsInt());
+        assertEquals(ProtolockWorker.EXIT_FAILURE, response.get("exitCode").getAsInt());
+        assertTrue(response.get("output").getAsString().contains("CONFLICT"));
+
+        writeTestFile("good.proto");
+        response = serve(worker, request(0));
+        assertEquals(0, response.get("exitCode").getAsInt());
+    }
+
+    /**
+     * Tests that multiplexed requests are all run and answered with their own request ids.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testMultiplexedRequests()
+        throws Exception {
+        ProtolockWorker worker = new ProtolockWorker();
+        writeTestFile("init.proto");
+        serve(worker, request(0));
+
+        writeTestFile("good.proto");
+        Map<Integer, JsonObject> responses = serveAll(worker, request(1).toString(), request(2).toString());
+        assertEquals(2, responses.size());
+        assertEquals(0, responses.get(1).get("exitCode").getAsInt());
+        assertEquals(0, responses.get(2).get("exitCode").getAsInt());
+    }
+
+    /**
+     * Tests that concurrent requests for different proto roots sharing a build directory each check and commit their
+     * own lock, even though they keep working files in the same place.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testConcurrentRequestsForDifferentRoots()
+        throws Exception {
+        if (Os.isFamily(Os.FAMILY_WINDOWS)) {
+            return;
+        }
+        final ProtolockWorker worker = new ProtolockWorker();
+        writeTestFile("init.proto");
+        serve(worker, request(0));
+        writeTestFile("good.proto");
+        writeTestFile("init.proto", "other-proto/test.proto");
+        writeTestFile("init.proto", "other-proto/vendor/vendor.proto");
+        Files.copy(getTestFile(testDir + "testProtos/vendor.lock").toPath(),
+            getTestFile(testDir + "other-proto/proto.lock").toPath());
+
+        // The first check is still running its plugin while the second one runs
+        List<String> first = Arrays.asList("--protoSourceRoot=src/test/resources/unit/proto",
+            "--buildDirectory=src/test/resources/unit", "--excludes=vendor/**", "--plugins=slow-plugin",
+            "--protolockPluginDirectory=src/test/resources/unit/plugins");
+        List<String> second = Arrays.asList("--protoSourceRoot=src/test/resources/unit/other-proto",
+            "--buildDirectory=src/test/resources/unit", "--excludes=vendor/**");
+        CompletableFuture<ProtolockWorker.WorkResult> firstResult =
+            CompletableFuture.supplyAsync(() -> worker.check(first, false));
+        Thread.sleep(1000);
+        ProtolockWorker.WorkResult secondResult = worker.check(second, false);
+        assertEquals(secondResult.getOutput(), 0, secondResult.getExitCode());
+        assertEquals(firstResult.get().getOutput(), 0, firstResult.get().getExitCode());
+
+        String lock = new String(Files.readAllBytes(getTestFile(testDir + "proto/proto.lock").toPath()),
+            StandardCharsets.UTF_8);
+        assertTrue(lock.contains("requestField4"));
+        assertFalse(lock.contains("vendor"));
+        String otherLock = new String(Files.readAllBytes(getTestFile(testDir + "other-proto/proto.lock").toPath()),
+            StandardCharsets.UTF_8);
+        assertTrue(otherLock.contains("vendor:/:vendor.proto"));
+    }
+
+    /**
+     * Tests that a request cancelled before it started is answered as cancelled, and the others are run.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testCancellation()
+        throws Exception {
+        ProtolockWorker worker = new ProtolockWorker();
+        writeTestFile("init.proto");
+        serve(worker, request(0));
+
+        // Every worker thread is busy with an earlier request when the last one is cancelled
+        int requests = Runtime.getRuntime().availableProcessors() + 1;
+        List<String> lines = new ArrayList<>();
+        for (int requestId = 1; requestId <= requests; requestId++) {
+            lines.add(request(requestId).toString());
+        }
+        lines.add("{\"requestId\":" + requests + ",\"cancel\":true}");
+        Map<Integer, JsonObject> responses = serveAll(worker, lines.toArray(new String[0]));
+        assertEquals(requests, responses.size());
+        assertTrue(responses.get(requests).get("wasCancelled").getAsBoolean());
+        for (int requestId = 1; requestId < requests; requestId++) {
+            assertEquals(0, responses.get(requestId).get("exitCode").getAsInt());
+        }
+    }
+
+    /**
+     * Tests that malformed requests are answered with an error, and the worker goes on serving.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testInvalidRequest()
+        throws Exception {
+        ProtolockWorker worker = new ProtolockWorker();
+        writeTestFile("init.proto");
+        List<JsonObject> responses = serveInOrder(worker, "not json", "{\"arguments\":{}}",
+            request(0).toString());
+        assertEquals(3, responses.size());
+        assertEquals(ProtolockWorker.EXIT_ERROR, responses.get(0).get("exitCode").getAsInt());
+        assertTrue(responses.get(0).get("output").getAsString().contains("Invalid work request"));
+        assertEquals(ProtolockWorker.EXIT_ERROR, responses.get(1).get("exitCode").getAsInt());
+        assertEquals(0, responses.get(2).get("exitCode").getAsInt());
+    }
+
+    /**
+     * Tests that a plugin given as a Maven artifact that was not prefetched is reported as an error.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testArtifactPlugin()
+        throws Exception {
+        writeTestFile("init.proto");
+        JsonObject request = request(0);
+        request.getAsJsonArray("arguments").add("--plugins=com.example:protolock-plugin:1.0");
+        request.getAsJsonArray("arguments").add("--protolockPluginDirectory=src/test/resources/unit/plugins");
+        JsonObject response = serve(new ProtolockWorker(), request);
+        assertEquals(ProtolockWorker.EXIT_ERROR, response.get("exitCode").getAsInt());
+        assertTrue(response.get("output").getAsString().contains(
+            "Unable to resolve artifact com.example:protolock-plugin:1.0 outside of a Maven build"));
+    }
+
+    private JsonObject request(int requestId) {
+        JsonArray arguments = new JsonArray();
+        arguments.add("--protoSourceRoot=src/test/resources/unit/proto");
+        arguments.add("--buildDirectory=src/test/resources/unit");
+        JsonObject request = new JsonObject();
+        request.add("arguments", arguments);
+        if (requestId != 0) {
+            request.addProperty("requestId", requestId);
+        }
+        return request;
+    }
+
+    private JsonObject serve(ProtolockWorker worker, JsonObject request)
+        throws Exception {
+        List<JsonObject> responses = serveInOrder(worker, request.toString());
+        assertEquals(1, responses.size());
+        return responses.get(0);
+    }
+
+    private Map<Integer, JsonObject> serveAll(ProtolockWorker worker, String... requests)
+        throws Exception {
+        Map<Integer, JsonObject> responses = new HashMap<>();
+        for (JsonObject response : serveInOrder(worker, requests)) {
+            assertNull(responses.put(response.get("requestId").getAsInt(), response));
+        }
+        return responses;
+    }
+
+    private List<JsonObject> serveInOrder(ProtolockWorker worker, String... requests)
+        throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        worker.serve(new ByteArrayInputStream((String.join("\n", requests) + "\n").getBytes(StandardCharsets.UTF_8)),
+            new PrintStream(out, true, "UTF-8"));
+        List<JsonObject> responses = new ArrayList<>();
+        for (String response : new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            responses.add(JsonParser.parseString(response).getAsJsonObject());
+        }
+        return responses;
+    }
+
+    /**
+     * Write desired test file to proto directory.
+     * @param filename the proto file.
+     */
+    private void writeTestFile(String filename)
+        throws Exception {
+        writeTestFile(filename, "proto/test.proto");
+    }
+
+    /**
+     * Write desired test file to the test directory.
+     * @param filename the proto file.
+     * @param target   the path to write it to, relative to the test directory.
+     */
+    private void writeTestFile(String filename, String target)
+        throws Exception {
+        File testFile = getTestFile(testDir + target);
+        testFile.getParentFile().mkdirs();
+        Files.copy(getTestFile(testDir + "testProtos/" + filename).toPath(), testFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+}
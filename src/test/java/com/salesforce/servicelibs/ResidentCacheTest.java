@@ -0,0 +1,173 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests the caches kept between builds under the Maven daemon.
+ */
+public class ResidentCacheTest
+    extends BetterAbstractMojoTestCase {
+
+    private static final String COMMON = "syntax = \"proto3\";\nmessage Common {\n  string id = 1;\n}\n";
+
+    private Path root;
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void setUp()
+        throws Exception {
+        // required
+        super.setUp();
+        root = Files.createTempDirectory("resident-cache").toRealPath();
+    }
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(root.toFile());
+    }
+
+    /**
+     * Tests that the least recently used entry is evicted first.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testLruEviction()
+        throws Exception {
+        Map<String, Integer> cache = ResidentCache.lruMap(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.put("c", 3);
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("c"));
+    }
+
+    /**
+     * Tests that a cached file hash is not reused once the file changes, even if its size does not, and that a file
+     * modified just before it was hashed is not cached at all.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testFileHashInvalidation()
+        throws Exception {
+        Path file = root.resolve("test.proto");
+        Files.write(file, "message A {}".getBytes(StandardCharsets.UTF_8));
+        ResidentCache.sha256(file);
+        synchronized (ResidentCache.FILE_HASHES) {
+            assertFalse(ResidentCache.FILE_HASHES.containsKey(file));
+        }
+
+        setModifiedMinutesAgo(file, 10);
+        String hash = ResidentCache.sha256(file);
+        synchronized (ResidentCache.FILE_HASHES) {
+            assertTrue(ResidentCache.FILE_HASHES.containsKey(file));
+        }
+        assertEquals(Checksums.sha256(file), hash);
+
+        Files.write(file, "message B {}".getBytes(StandardCharsets.UTF_8));
+        setModifiedMinutesAgo(file, 5);
+        assertEquals(Checksums.sha256(file), ResidentCache.sha256(file));
+        assertFalse(hash.equals(ResidentCache.sha256(file)));
+    }
+
+    /**
+     * Tests that the API fingerprint of a changed file is taken again.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testFingerprintInvalidation()
+        throws Exception {
+        Path file = root.resolve("test.proto");
+        Files.write(file, COMMON.getBytes(StandardCharsets.UTF_8));
+        setModifiedMinutesAgo(file, 10);
+        String fingerprint = ResidentCache.apiFingerprints(root).get("test.proto");
+        assertEquals(ApiFingerprint.of(COMMON.getBytes(StandardCharsets.UTF_8)), fingerprint);
+
+        String changed = COMMON.replace("id = 1", "id = 2");
+        Files.write(file, changed.getBytes(StandardCharsets.UTF_8));
+        setModifiedMinutesAgo(file, 5);
+        assertEquals(ApiFingerprint.of(changed.getBytes(StandardCharsets.UTF_8)),
+            ResidentCache.apiFingerprints(root).get("test.proto"));
+    }
+
+    /**
+     * Tests that a proto file reached by several modules, through overlapping proto roots, is fingerprinted once and
+     * shared, even when the modules are checked at the same time.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testSharedAcrossModules()
+        throws Exception {
+        // Unique content, so that no other test has fingerprinted it already
+        String content = COMMON + "// " + System.nanoTime() + "\n";
+        Path common = root.resolve("common/common.proto");
+        Files.createDirectories(common.getParent());
+        Files.write(common, content.getBytes(StandardCharsets.UTF_8));
+        setModifiedMinutesAgo(common, 10);
+        String contentHash = Checksums.sha256(common);
+
+        CompletableFuture<SortedMap<String, String>> module = CompletableFuture.supplyAsync(() -> fingerprints(root));
+        CompletableFuture<SortedMap<String, String>> commonModule =
+            CompletableFuture.supplyAsync(() -> fingerprints(common.getParent()));
+        String fingerprint = module.get(1, TimeUnit.MINUTES).get("common/common.proto");
+        assertEquals(fingerprint, commonModule.get(1, TimeUnit.MINUTES).get("common.proto"));
+        synchronized (ResidentCache.API_FINGERPRINTS) {
+            assertEquals(fingerprint, ResidentCache.API_FINGERPRINTS.get(contentHash));
+        }
+
+        // A module that links to the common proto reuses the same entry
+        Path linked = root.resolve("other/common.proto");
+        Files.createDirectories(linked.getParent());
+        try {
+            Files.createSymbolicLink(linked, common);
+        } catch (UnsupportedOperationException | IOException e) {
+            // Symbolic links are not supported here
+            return;
+        }
+        synchronized (ResidentCache.API_FINGERPRINTS) {
+            ResidentCache.API_FINGERPRINTS.put(contentHash, "shared");
+        }
+        assertEquals("shared", ResidentCache.apiFingerprints(linked.getParent()).get("common.proto"));
+        synchronized (ResidentCache.API_FINGERPRINTS) {
+            ResidentCache.API_FINGERPRINTS.remove(contentHash);
+        }
+    }
+
+    private static SortedMap<String, String> fingerprints(Path protoRoot) {
+        try {
+            return ResidentCache.apiFingerprints(protoRoot);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void setModifiedMinutesAgo(Path file, int minutes)
+        throws Exception {
+        Files.setLastModifiedTime(file,
+            FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(minutes)));
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Copyright (c) 2018, salesforce.com, inc.
+ *  All rights reserved.
+ *  Licensed under the BSD 3-Clause license.
+ *  For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+
+package com.salesforce.servicelibs;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.utils.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Tests that the check can be split into shards and merged.
+ */
+public class ShardingMojoTest
+    extends BetterAbstractMojoTestCase {
+
+    final String testDir = "/src/test/resources/unit/";
+    File pom;
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void setUp()
+        throws Exception {
+        // required
+        super.setUp();
+        pom = getTestFile(testDir + "project-to-test/pom-sharding.xml");
+        assertTrue(pom.exists());
+    }
+
+    /**
+     * {@inheritDoc}
+     * */
+    protected void tearDown()
+        throws Exception {
+        // required
+        super.tearDown();
+        FileUtils.deleteDirectory(getTestFile(testDir + "protolock-reports"));
+        String path = testDir + "protolock-bin";
+        File exeDir = getTestFile(path);
+        File exeFile = getTestFile(path + "/protolock");
+        exeFile.delete();
+        exeDir.delete();
+        getTestFile(testDir + "proto/proto.lock").delete();
+        getTestFile(testDir + "proto/test.proto").delete();
+        getTestFile(testDir + "proto/other.proto").delete();
+        FileUtils.deleteDirectory(getTestFile(testDir + "proto/vendor"));
+        FileUtils.deleteDirectory(getTestFile(testDir + "project-to-test/target/protolock-shards"));
+    }
+
+    /**
+     * Tests that each shard checks its own files, and that the merge fails if any shard failed.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testShards()
+        throws Exception {
+        writeTestFile("other.proto", "init.proto");
+        writeTestFile("test.proto", "init.proto");
+        assertEquals(0, runShards());
+        mergeShards(false);
+        File lockFile = getTestFile(testDir + "proto/proto.lock");
+        assertTrue(lockFile.exists());
+        String lock = new String(Files.readAllBytes(lockFile.toPath()), "UTF-8");
+        assertTrue(lock.contains("other.proto"));
+        assertTrue(lock.contains("test.proto"));
+
+        writeTestFile("test.proto", "bad.proto");
+        assertEquals(1, runShards());
+        mergeShards(true);
+
+        writeTestFile("test.proto", "good.proto");
+        assertEquals(0, runShards());
+        mergeShards(false);
+        lock = new String(Files.readAllBytes(lockFile.toPath()), "UTF-8");
+        assertTrue(lock.contains("requestField4"));
+        assertTrue(lock.contains("other.proto"));
+    }
+
+    /**
+     * Tests that merging the shards keeps the definitions of excluded proto files in proto.lock.
+     * @throws Exception if any.
+     */
+    @Test
+    public void testShardsWithExcludes()
+        throws Exception {
+        writeTestFile("vendor/vendor.proto", "init.proto");
+        writeTestFile("test.proto", "good.proto");
+        File lockFile = getTestFile(testDir + "proto/proto.lock");
+        Files.copy(getTestFile(testDir + "testProtos/vendor.lock").toPath(), lockFile.toPath());
+        assertEquals(0, runShards(Collections.singletonList("vendor/**")));
+        mergeShards(false);
+        String lock = new String(Files.readAllBytes(lockFile.toPath()), "UTF-8");
+        assertTrue(lock.contains("vendor:/:vendor.proto"));
+        assertTrue(lock.contains("requestField4"));
+    }
+
+    /**
+     * Runs every shard of the check.
+     * @return the number of shards that failed.
+     */
+    private int runShards()
+        throws Exception {
+        return runShards(null);
+    }
+
+    /**
+     * Runs every shard of the check.
+     * @param excludes the proto files to leave out of the check.
+     * @return the number of shards that failed.
+     */
+    private int runShards(List<String> excludes)
+        throws Exception {
+        int failed = 0;
+        for (int shardIndex = 0; shardIndex < 2; shardIndex++) {
+            BackwardsCompatibilityCheckMojo mojo =
+                (BackwardsCompatibilityCheckMojo) lookupConfiguredMojo(pom, "backwards-compatibility-check");
+            setVariableValueToObject(mojo, "shardCount", 2);
+            setVariableValueToObject(mojo, "shardIndex", shardIndex);
+            setVariableValueToObject(mojo, "excludes", excludes);
+            mojo.project = createProject();
+            try {
+                mojo.execute();
+            } catch (MojoFailureException ex) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Run the merge with expected result.
+     * @param shouldFail the merge should pass or fail.
+     */
+    private void mergeShards(boolean shouldFail)
+        throws Exception {
+        MergeShardsMojo mojo = (MergeShardsMojo) lookupConfiguredMojo(pom, "merge-shards");
+        try {
+            mojo.execute();
+            if (shouldFail) {
+                fail();
+            }
+        } catch (MojoFailureException ex) {
+            if (!shouldFail) {
+                fail(ex.getMessage());
+            }
+            assertTrue(ex.getMessage().startsWith("Backwards compatibility check failed in shards"));
+        }
+    }
+
+    private MavenProject createProject() {
+        Model m = new Model();
+        String classifier = System.getProperty("os.name").toLowerCase();
+        if ((classifier.contains("mac"))) {
+            classifier = "osx-x86_64";
+        } else if (classifier.contains("nux")) {
+            classifier = "linux-x86_64";
+        } else if (classifier.contains("windows")) {
+            classifier = "windows-x86_64";
+        }
+
+        m.addProperty("os.detected.classifier", classifier);
+        Build b = new Build();
+        b.setDirectory(System.getProperty("user.dir") + testDir);
+        m.setBuild(b);
+        return new MavenProject(m);
+    }
+
+    /**
+     * Write a test proto file to the proto directory.
+     * @param filename the file to write.
+     * @param source   the test proto to copy.
+     */
+    private void writeTestFile(String filename, String source)
+        throws Exception {
+        File testFile = getTestFile(testDir + "proto/" + filename);
+        testFile.getParentFile().mkdirs();
+        Files.copy(getTestFile(testDir + "testProtos/" + source).toPath(), testFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+}